@@ -0,0 +1,97 @@
+package com.demo.lizejun.libdatabase;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.lib.database.RowMappers;
+import com.lib.database.callback.IConverter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 对比手写转换器（每行每列都调用 getColumnIndex）和生成的 CacheBean_RowMapper 的转换耗时。
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowMapperBenchmark {
+
+    private static final String TAG = RowMapperBenchmark.class.getSimpleName();
+    private static final int ROW_COUNT = 10000;
+    private static final int WARM_UP_ROUNDS = 5;
+    private static final int ROUNDS = 20;
+
+    private static final IConverter<List<CacheBean>> HAND_WRITTEN = new IConverter<List<CacheBean>>() {
+
+        @Override
+        public List<CacheBean> convert(Cursor cursor) {
+            List<CacheBean> list = new ArrayList<>();
+            while (cursor != null && cursor.moveToNext()) {
+                String url = cursor.getString(cursor.getColumnIndex(NetDBHelper.CacheTab.URL));
+                long time = cursor.getLong(cursor.getColumnIndex(NetDBHelper.CacheTab.LOCAL_UPDATE_TIME));
+                CacheBean cacheBean = new CacheBean();
+                cacheBean.setUrl(url);
+                cacheBean.setTime(time);
+                list.add(cacheBean);
+            }
+            if (cursor != null) {
+                cursor.close();
+            }
+            return list;
+        }
+    };
+
+    @Test
+    public void generatedMapperMatchesHandWritten() throws Exception {
+        List<CacheBean> expected = HAND_WRITTEN.convert(createCursor(100));
+        List<CacheBean> actual = RowMappers.newListConverter(CacheBean.class).convert(createCursor(100));
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getUrl(), actual.get(i).getUrl());
+            assertEquals(expected.get(i).getTime(), actual.get(i).getTime());
+        }
+    }
+
+    @Test
+    public void compareConvertCost() throws Exception {
+        long handWritten = measure(HAND_WRITTEN);
+        long generated = measure(new CacheBean_RowMapper());
+        Log.i(TAG, "rows=" + ROW_COUNT + ", handWritten=" + handWritten + "us, generated=" + generated + "us");
+    }
+
+    /**
+     * @return ROUNDS 轮转换的平均耗时，单位微秒，不包含构造 Cursor 的时间。
+     */
+    private long measure(IConverter<List<CacheBean>> converter) {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            converter.convert(createCursor(ROW_COUNT));
+        }
+        long total = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            Cursor cursor = createCursor(ROW_COUNT);
+            long start = System.nanoTime();
+            List<CacheBean> result = converter.convert(cursor);
+            total += System.nanoTime() - start;
+            assertEquals(ROW_COUNT, result.size());
+        }
+        return total / ROUNDS / 1000;
+    }
+
+    private static Cursor createCursor(int rowCount) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                NetDBHelper.CacheTab._ID,
+                NetDBHelper.CacheTab.URL,
+                NetDBHelper.CacheTab.BYTE_SIZE,
+                NetDBHelper.CacheTab.LOCAL_UPDATE_TIME}, rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            cursor.addRow(new Object[]{i, "http://example.com/" + i, i * 10, 1500000000000L + i});
+        }
+        return cursor;
+    }
+}
@@ -1,9 +1,15 @@
 package com.demo.lizejun.libdatabase;
 
 
+import com.lib.database.annotation.Column;
+import com.lib.database.annotation.RowBean;
+
+@RowBean
 public class CacheBean {
 
+    @Column(NetDBHelper.CacheTab.LOCAL_UPDATE_TIME)
     private long time;
+    @Column(NetDBHelper.CacheTab.URL)
     private String url;
 
     public long getTime() {
@@ -3,14 +3,33 @@ package com.demo.lizejun.libdatabase;
 import android.content.Context;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import com.lib.database.BoundedTable;
+import com.lib.database.DbConfig;
 import com.lib.database.SimpleSQLiteProvider;
+import com.lib.database.annotation.Durability;
 
 public class DemoProvider extends SimpleSQLiteProvider {
 
     public static final Uri AUTHORITY_URI = Uri.parse("content://" + "demo");
+    private static final long MAX_CACHE_BYTES = 32 * 1024 * 1024;
 
     @Override
     public SQLiteOpenHelper getDatabaseHelper(Context context) {
         return new NetDBHelper(context);
     }
+
+    @Override
+    protected DbConfig getDbConfig() {
+        //网络缓存可以重新下载，断电丢失最近的写入可以接受。
+        return new DbConfig.Builder()
+                .writeAheadLogging(true)
+                .durability(Durability.NORMAL)
+                .boundedTable(new BoundedTable.Builder()
+                        .tableName(NetDBHelper.CacheTab.TABLE)
+                        .sizeColumn(NetDBHelper.CacheTab.BYTE_SIZE)
+                        .accessTimeColumn(NetDBHelper.CacheTab.LAST_ACCESS_TIME)
+                        .maxBytes(MAX_CACHE_BYTES)
+                        .build())
+                .build();
+    }
 }
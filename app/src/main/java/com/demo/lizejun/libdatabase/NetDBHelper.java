@@ -11,7 +11,7 @@ public class NetDBHelper extends SQLiteOpenHelper {
     private static final String TAG = NetDBHelper.class.getSimpleName();
 
     private static final String DB_NAME = "table.db";
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 2;
 
     public static final class CacheTab {
 
@@ -21,6 +21,10 @@ public class NetDBHelper extends SQLiteOpenHelper {
         public static final String URL = "url";
         public static final String BYTE_SIZE = "byte_size";
         public static final String LOCAL_UPDATE_TIME = "local_update_time";
+        /**
+         * 最近一次读取的时间，由缓存淘汰维护，淘汰时最久没有读取的行先被删除。
+         */
+        public static final String LAST_ACCESS_TIME = "last_access_time";
         public static final String DATA = "data";
     }
 
@@ -29,6 +33,7 @@ public class NetDBHelper extends SQLiteOpenHelper {
             + CacheTab.URL + " TEXT, "
             + CacheTab.BYTE_SIZE + " INTEGER, "
             + CacheTab.LOCAL_UPDATE_TIME + " INTEGER, "
+            + CacheTab.LAST_ACCESS_TIME + " INTEGER, "
             + CacheTab.DATA + " BLOB, "
             + " UNIQUE (" + CacheTab.URL
             + ") ON CONFLICT REPLACE" + ");";
@@ -44,5 +49,12 @@ public class NetDBHelper extends SQLiteOpenHelper {
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.d(TAG, "onUpgrade, oldVersion=" + oldVersion + ", newVersion=" + newVersion);
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + CacheTab.TABLE + " ADD COLUMN " + CacheTab.LAST_ACCESS_TIME + " INTEGER");
+            //已有的行没有读取记录，用更新时间作为初始值。
+            db.execSQL("UPDATE " + CacheTab.TABLE + " SET " + CacheTab.LAST_ACCESS_TIME + " = " + CacheTab.LOCAL_UPDATE_TIME);
+        }
+    }
 }
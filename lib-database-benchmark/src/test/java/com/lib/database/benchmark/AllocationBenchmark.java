@@ -0,0 +1,139 @@
+package com.lib.database.benchmark;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.lib.database.DbRequest;
+import com.lib.database.annotation.RequestType;
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+import com.lib.database.callback.IConverter;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比同一个同步点查和按 id 更新，分别用 Builder 逐个添加参数构造请求，和通过 doSyncQuery/doSyncUpdate
+ * 使用对象池中的请求、直接传递数组时，每个操作在调用线程上分配的字节数。
+ */
+public class AllocationBenchmark extends BaseBenchmark {
+
+    private static final int ROW_COUNT = 1000;
+    private static final int REQUEST_COUNT = 1000;
+    private static final String[] PROJECTION = new String[]{BenchTab._ID, BenchTab.VALUE};
+    private static final String[] IDS = new String[ROW_COUNT];
+
+    private static final BenchmarkReport REPORT = new BenchmarkReport(AllocationBenchmark.class.getSimpleName());
+
+    private static final IConverter<Integer> COUNT_ONLY = new IConverter<Integer>() {
+
+        @Override
+        public Integer convert(Cursor cursor) {
+            int count = cursor.getCount();
+            cursor.close();
+            return count;
+        }
+    };
+
+    static {
+        for (int i = 0; i < ROW_COUNT; i++) {
+            IDS[i] = String.valueOf(i + 1);
+        }
+    }
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        REPORT.write();
+    }
+
+    @Before
+    public void fill() {
+        fillTable(ROW_COUNT);
+    }
+
+    @Test
+    public void query() throws Exception {
+        BenchmarkResult builder = benchmark.measure("builderQuery", REQUEST_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < REQUEST_COUNT; i++) {
+                    DbRequest request = new DbRequest.Builder()
+                            .tableName(BenchTab.TABLE)
+                            .requestType(RequestType.QUERY)
+                            .projection(BenchTab._ID)
+                            .projection(BenchTab.VALUE)
+                            .selection(BenchTab._ID + " = ?")
+                            .selectionArgs(IDS[i % ROW_COUNT])
+                            .addConverter(COUNT_ONLY)
+                            .build();
+                    executor.doSync(BenchProvider.AUTHORITY_URI, request);
+                }
+            }
+        });
+        BenchmarkResult pooled = benchmark.measure("pooledQuery", REQUEST_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                String[] args = new String[1];
+                for (int i = 0; i < REQUEST_COUNT; i++) {
+                    args[0] = IDS[i % ROW_COUNT];
+                    executor.doSyncQuery(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, PROJECTION,
+                            BenchTab._ID + " = ?", args, null, null, null, null, COUNT_ONLY);
+                }
+            }
+        });
+        REPORT.add(builder);
+        REPORT.add(pooled);
+        assertFewerAllocations(builder, pooled);
+    }
+
+    @Test
+    public void update() throws Exception {
+        final ContentValues values = new ContentValues();
+        values.put(BenchTab.VALUE, 1);
+        BenchmarkResult builder = benchmark.measure("builderUpdate", REQUEST_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < REQUEST_COUNT; i++) {
+                    DbRequest request = new DbRequest.Builder()
+                            .tableName(BenchTab.TABLE)
+                            .requestType(RequestType.UPDATE)
+                            .putAll(values)
+                            .selection(BenchTab._ID + " = ?")
+                            .selectionArgs(IDS[i % ROW_COUNT])
+                            .build();
+                    executor.doSync(BenchProvider.AUTHORITY_URI, request);
+                }
+            }
+        });
+        BenchmarkResult pooled = benchmark.measure("pooledUpdate", REQUEST_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                String[] args = new String[1];
+                for (int i = 0; i < REQUEST_COUNT; i++) {
+                    args[0] = IDS[i % ROW_COUNT];
+                    executor.doSyncUpdate(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, values, BenchTab._ID + " = ?", args);
+                }
+            }
+        });
+        REPORT.add(builder);
+        REPORT.add(pooled);
+        assertFewerAllocations(builder, pooled);
+    }
+
+    /**
+     * 两条路径执行的 SQL 相同，差值只来自请求的构造和分发。
+     */
+    private static void assertFewerAllocations(BenchmarkResult builder, BenchmarkResult pooled) {
+        if (builder.bytesPerOp >= 0 && pooled.bytesPerOp >= 0) {
+            assertTrue(pooled.name + " allocates " + pooled.bytesPerOp + " bytes/op, " + builder.name + " " + builder.bytesPerOp,
+                    pooled.bytesPerOp < builder.bytesPerOp);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.lib.database.benchmark;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.lib.database.Constant;
+import com.lib.database.DbRequest;
+import com.lib.database.DbResponse;
+import com.lib.database.annotation.BatchAtomicity;
+import com.lib.database.annotation.RequestType;
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 自动分块的 applyBatch：跨分块的反向引用、失败时已提交的 yield 点数量，以及 yield 点间隔的上限。
+ */
+public class ApplyBatchTest extends BaseBenchmark {
+
+    private static final int OPERATION_COUNT = 10000;
+    private static final Uri TABLE_URI = BenchProvider.AUTHORITY_URI.buildUpon()
+            .appendQueryParameter(Constant.TABLE_NAME, BenchTab.TABLE)
+            .build();
+
+    @Before
+    public void clear() {
+        clearTable();
+    }
+
+    /**
+     * 后一半的插入引用前一半插入的 id，引用的操作一定在之前已经提交的分块中。
+     */
+    @Test
+    public void backReferencesAcrossChunks() throws Exception {
+        int half = OPERATION_COUNT / 2;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(OPERATION_COUNT);
+        for (int i = 0; i < half; i++) {
+            operations.add(ContentProviderOperation.newInsert(TABLE_URI)
+                    .withValue(BenchTab.NAME, "row-" + i)
+                    .build());
+        }
+        for (int i = 0; i < half; i++) {
+            operations.add(ContentProviderOperation.newInsert(TABLE_URI)
+                    .withValue(BenchTab.NAME, "ref-" + i)
+                    .withValueBackReference(BenchTab.VALUE, i)
+                    .build());
+        }
+        ContentProviderResult[] results = provider.applyBatch(operations);
+        assertEquals(OPERATION_COUNT, results.length);
+        assertEquals(OPERATION_COUNT, count(null, null));
+        for (int i = 0; i < half; i += 499) {
+            long id = ContentUris.parseId(results[i].uri);
+            assertEquals(1, count(BenchTab.NAME + " = ? AND " + BenchTab.VALUE + " = ?", new String[]{"ref-" + i, String.valueOf(id)}));
+        }
+    }
+
+    @Test
+    public void failureReportsCommittedYieldPoints() throws Exception {
+        int failAt = OPERATION_COUNT - 10;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(OPERATION_COUNT);
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            if (i == failAt) {
+                operations.add(ContentProviderOperation.newUpdate(TABLE_URI)
+                        .withSelection(BenchTab.NAME + " = ?", new String[]{"missing"})
+                        .withValue(BenchTab.VALUE, 1)
+                        .withExpectedCount(1)
+                        .build());
+            } else {
+                operations.add(ContentProviderOperation.newInsert(TABLE_URI)
+                        .withValue(BenchTab.NAME, "row-" + i)
+                        .build());
+            }
+        }
+        DbResponse response = executor.doSync(BenchProvider.AUTHORITY_URI, new DbRequest.Builder()
+                .requestType(RequestType.APPLY_BATCH)
+                .operations(operations)
+                .batchAtomicity(BatchAtomicity.PER_CHUNK)
+                .build());
+        assertNotNull(response.getApplyBatchError());
+        int yieldPoints = response.getNumSuccessfulYieldPoints();
+        assertTrue("yieldPoints=" + yieldPoints, yieldPoints > 0);
+        //已经提交的分块保留，失败的分块整体回滚。
+        int committed = count(null, null);
+        assertTrue("committed=" + committed, committed > 0 && committed <= failAt);
+    }
+
+    @Test
+    public void wholeBatchRollsBackEverything() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(OPERATION_COUNT);
+        for (int i = 0; i < OPERATION_COUNT - 1; i++) {
+            operations.add(ContentProviderOperation.newInsert(TABLE_URI).withValue(BenchTab.NAME, "row-" + i).build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(TABLE_URI)
+                .withSelection(BenchTab.NAME + " = ?", new String[]{"missing"})
+                .withValue(BenchTab.VALUE, 1)
+                .withExpectedCount(1)
+                .build());
+        try {
+            provider.applyBatch(operations, BatchAtomicity.WHOLE_BATCH);
+            fail();
+        } catch (OperationApplicationException e) {
+            assertEquals(0, e.getNumSuccessfulYieldPoints());
+        }
+        assertEquals(0, count(null, null));
+    }
+
+    @Test
+    public void tooManyOperationsBetweenYieldPoints() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(OPERATION_COUNT);
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            operations.add(ContentProviderOperation.newInsert(TABLE_URI)
+                    .withValue(BenchTab.NAME, "row-" + i)
+                    .withYieldAllowed(i % 5000 == 0)
+                    .build());
+        }
+        try {
+            provider.applyBatch(operations);
+            fail();
+        } catch (OperationApplicationException e) {
+            assertEquals(0, e.getNumSuccessfulYieldPoints());
+        }
+        assertEquals(0, count(null, null));
+    }
+
+    private int count(String selection, String[] selectionArgs) {
+        Cursor cursor = provider.query(TABLE_URI, new String[]{BenchTab._ID}, selection, selectionArgs, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.lib.database.benchmark;
+
+
+import android.content.ContentValues;
+
+import com.lib.database.DbExecutor;
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在 Robolectric 中启动 BenchProvider，数据库由 Robolectric 自带的原生 SQLite 执行，可以在普通 JVM 上运行。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public abstract class BaseBenchmark {
+
+    static final int WARM_UP_ITERATIONS = 3;
+    static final int ITERATIONS = 10;
+
+    protected BenchProvider provider;
+    protected DbExecutor executor;
+    protected Benchmark benchmark = new Benchmark(WARM_UP_ITERATIONS, ITERATIONS);
+
+    @Before
+    public void setUpProvider() {
+        provider = Robolectric.setupContentProvider(BenchProvider.class, BenchProvider.AUTHORITY);
+        executor = new DbExecutor(RuntimeEnvironment.application);
+        //耗时统计本身也有开销，基准测试中关闭，需要对比时单独测。
+        executor.setMetricsEnabled(false);
+    }
+
+    @After
+    public void tearDownProvider() {
+        executor.shutdown();
+    }
+
+    protected void clearTable() {
+        executor.doSyncDelete(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, null, null);
+    }
+
+    protected void fillTable(int rowCount) {
+        clearTable();
+        executor.doSyncBulkInsert(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, createRows(rowCount));
+    }
+
+    protected static List<ContentValues> createRows(int rowCount) {
+        List<ContentValues> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            rows.add(createRow(i));
+        }
+        return rows;
+    }
+
+    protected static ContentValues createRow(int i) {
+        ContentValues values = new ContentValues();
+        values.put(BenchTab.NAME, "row-" + i);
+        values.put(BenchTab.VALUE, i);
+        values.put(BenchTab.DATA, new byte[64]);
+        return values;
+    }
+}
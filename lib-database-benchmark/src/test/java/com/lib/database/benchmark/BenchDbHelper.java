@@ -0,0 +1,47 @@
+package com.lib.database.benchmark;
+
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+public class BenchDbHelper extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "bench.db";
+    private static final int DB_VERSION = 1;
+
+    public static final class BenchTab {
+
+        public static final String TABLE = "bench";
+
+        public static final String _ID = "_id";
+        public static final String NAME = "name";
+        public static final String VALUE = "value";
+        public static final String DATA = "data";
+    }
+
+    static final String CREATE_TAB_BENCH = "CREATE TABLE " + BenchTab.TABLE
+            + "(" + BenchTab._ID + " integer primary key autoincrement, "
+            + BenchTab.NAME + " TEXT, "
+            + BenchTab.VALUE + " INTEGER, "
+            + BenchTab.DATA + " BLOB);";
+
+    static final String CREATE_INDEX_VALUE = "CREATE INDEX bench_value ON " + BenchTab.TABLE + "(" + BenchTab.VALUE + ");";
+
+    public BenchDbHelper(Context context) {
+        this(context, DB_NAME);
+    }
+
+    public BenchDbHelper(Context context, String name) {
+        super(context, name, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(CREATE_TAB_BENCH);
+        db.execSQL(CREATE_INDEX_VALUE);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+}
@@ -0,0 +1,18 @@
+package com.lib.database.benchmark;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+
+import com.lib.database.SimpleSQLiteProvider;
+
+public class BenchProvider extends SimpleSQLiteProvider {
+
+    public static final String AUTHORITY = "bench";
+    public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
+    @Override
+    public SQLiteOpenHelper getDatabaseHelper(Context context) {
+        return new BenchDbHelper(context);
+    }
+}
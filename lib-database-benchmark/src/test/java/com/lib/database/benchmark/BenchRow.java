@@ -0,0 +1,16 @@
+package com.lib.database.benchmark;
+
+
+import com.lib.database.annotation.Column;
+import com.lib.database.annotation.RowBean;
+
+@RowBean
+public class BenchRow {
+
+    @Column(BenchDbHelper.BenchTab._ID)
+    long id;
+    @Column(BenchDbHelper.BenchTab.NAME)
+    String name;
+    @Column(BenchDbHelper.BenchTab.VALUE)
+    long value;
+}
@@ -0,0 +1,64 @@
+package com.lib.database.benchmark;
+
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 先预热若干轮，再逐轮计时。每轮开始前调用 {@link Task#setUp}，准备数据的时间不计入结果。
+ * 在 HotSpot 上同时统计当前线程在计时期间分配的字节数，其他线程上的分配不计入。
+ */
+public class Benchmark {
+
+    public static abstract class Task {
+
+        public void setUp() throws Exception {
+        }
+
+        public abstract void run() throws Exception;
+    }
+
+    private final int warmUpIterations;
+    private final int iterations;
+
+    public Benchmark(int warmUpIterations, int iterations) {
+        this.warmUpIterations = warmUpIterations;
+        this.iterations = iterations;
+    }
+
+    /**
+     * @param opsPerIteration 每轮包含的操作数，用于计算每秒操作数。
+     */
+    public BenchmarkResult measure(String name, int opsPerIteration, Task task) throws Exception {
+        for (int i = 0; i < warmUpIterations; i++) {
+            task.setUp();
+            task.run();
+        }
+        long[] samples = new long[iterations];
+        long allocatedBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            task.setUp();
+            long allocatedBefore = currentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            task.run();
+            samples[i] = System.nanoTime() - start;
+            allocatedBytes += currentThreadAllocatedBytes() - allocatedBefore;
+        }
+        long bytesPerOp = allocationSupported() ? allocatedBytes / ((long) iterations * opsPerIteration) : -1;
+        return new BenchmarkResult(name, opsPerIteration, samples, bytesPerOp);
+    }
+
+    private static boolean allocationSupported() {
+        return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean;
+    }
+
+    /**
+     * @return 当前线程累计分配的字节数，JVM 不支持时返回 0。
+     */
+    private static long currentThreadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,56 @@
+package com.lib.database.benchmark;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 收集一个测试类的所有结果，写成 JSON 文件，方便和历史结果对比。
+ * 输出目录由系统属性 benchmark.outputDir 指定，默认为 build/benchmark-results。
+ */
+public class BenchmarkReport {
+
+    private static final String OUTPUT_DIR_PROPERTY = "benchmark.outputDir";
+    private static final String DEFAULT_OUTPUT_DIR = "build/benchmark-results";
+
+    private final String suite;
+    private final List<BenchmarkResult> results = new ArrayList<>();
+
+    public BenchmarkReport(String suite) {
+        this.suite = suite;
+    }
+
+    public synchronized void add(BenchmarkResult result) {
+        System.out.println("[" + suite + "] " + result);
+        results.add(result);
+    }
+
+    public synchronized File write() throws IOException {
+        File dir = new File(System.getProperty(OUTPUT_DIR_PROPERTY, DEFAULT_OUTPUT_DIR));
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can not create " + dir);
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\"suite\":\"").append(suite).append("\"")
+                .append(",\"timestamp\":").append(System.currentTimeMillis())
+                .append(",\"javaVersion\":\"").append(System.getProperty("java.version")).append("\"")
+                .append(",\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            json.append(i > 0 ? ",\n" : "\n").append(results.get(i).toJson());
+        }
+        json.append("\n]}\n");
+        File file = new File(dir, suite + ".json");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,77 @@
+package com.lib.database.benchmark;
+
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 单个基准测试的结果，耗时单位为纳秒，均为每轮的耗时。
+ */
+public class BenchmarkResult {
+
+    final String name;
+    final int iterations;
+    final int opsPerIteration;
+    final long meanNanos;
+    final long minNanos;
+    final long p50Nanos;
+    final long p95Nanos;
+    final long p99Nanos;
+    final long maxNanos;
+    /**
+     * 每个操作在当前线程上平均分配的字节数，不支持统计时为 -1。
+     */
+    final long bytesPerOp;
+
+    BenchmarkResult(String name, int opsPerIteration, long[] samples, long bytesPerOp) {
+        this.name = name;
+        this.iterations = samples.length;
+        this.opsPerIteration = opsPerIteration;
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long sample : sorted) {
+            total += sample;
+        }
+        this.meanNanos = total / sorted.length;
+        this.minNanos = sorted[0];
+        this.p50Nanos = percentile(sorted, 50);
+        this.p95Nanos = percentile(sorted, 95);
+        this.p99Nanos = percentile(sorted, 99);
+        this.maxNanos = sorted[sorted.length - 1];
+        this.bytesPerOp = bytesPerOp;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * @return 按平均耗时计算的每秒操作数。
+     */
+    double opsPerSecond() {
+        return meanNanos == 0 ? 0 : opsPerIteration * 1e9 / meanNanos;
+    }
+
+    String toJson() {
+        return "{\"name\":\"" + name + "\""
+                + ",\"iterations\":" + iterations
+                + ",\"opsPerIteration\":" + opsPerIteration
+                + ",\"meanNanos\":" + meanNanos
+                + ",\"minNanos\":" + minNanos
+                + ",\"p50Nanos\":" + p50Nanos
+                + ",\"p95Nanos\":" + p95Nanos
+                + ",\"p99Nanos\":" + p99Nanos
+                + ",\"maxNanos\":" + maxNanos
+                + ",\"opsPerSecond\":" + String.format(Locale.US, "%.1f", opsPerSecond())
+                + ",\"bytesPerOp\":" + bytesPerOp
+                + "}";
+    }
+
+    @Override
+    public String toString() {
+        return name + ": mean=" + meanNanos / 1000 + "us, p50=" + p50Nanos / 1000 + "us, p95=" + p95Nanos / 1000
+                + "us, ops/s=" + String.format(Locale.US, "%.1f", opsPerSecond()) + ", bytes/op=" + bytesPerOp;
+    }
+}
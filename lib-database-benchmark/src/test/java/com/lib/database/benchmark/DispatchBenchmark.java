@@ -0,0 +1,90 @@
+package com.lib.database.benchmark;
+
+
+import android.database.Cursor;
+
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+import com.lib.database.callback.IConverter;
+import com.lib.database.callback.IQueryCallback;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 同一个点查分别通过 DbExecutor 同步执行和异步执行，差值为线程池调度和回调的开销。
+ */
+public class DispatchBenchmark extends BaseBenchmark {
+
+    private static final int ROW_COUNT = 1000;
+    private static final int REQUEST_COUNT = 1000;
+
+    private static final BenchmarkReport REPORT = new BenchmarkReport(DispatchBenchmark.class.getSimpleName());
+
+    private static final IConverter<Integer> COUNT_ONLY = new IConverter<Integer>() {
+
+        @Override
+        public Integer convert(Cursor cursor) {
+            int count = cursor.getCount();
+            cursor.close();
+            return count;
+        }
+    };
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        REPORT.write();
+    }
+
+    @Before
+    public void fill() {
+        fillTable(ROW_COUNT);
+    }
+
+    @Test
+    public void syncDispatch() throws Exception {
+        REPORT.add(benchmark.measure("syncQuery", REQUEST_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < REQUEST_COUNT; i++) {
+                    executor.doSyncQuery(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, null,
+                            BenchTab._ID + " = ?", new String[]{String.valueOf(i % ROW_COUNT + 1)},
+                            null, null, null, null, COUNT_ONLY);
+                }
+            }
+        }));
+    }
+
+    /**
+     * 一次性提交所有请求，等全部回调后结束，回调在工作线程执行，不经过主线程。
+     */
+    @Test
+    public void asyncDispatch() throws Exception {
+        REPORT.add(benchmark.measure("asyncQuery", REQUEST_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() throws Exception {
+                final CountDownLatch latch = new CountDownLatch(REQUEST_COUNT);
+                IQueryCallback<Integer> callback = new IQueryCallback<Integer>() {
+
+                    @Override
+                    public void onQueryCompleted(Integer result) {
+                        latch.countDown();
+                    }
+                };
+                for (int i = 0; i < REQUEST_COUNT; i++) {
+                    executor.doAsyncQuery(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, null,
+                            BenchTab._ID + " = ?", new String[]{String.valueOf(i % ROW_COUNT + 1)},
+                            null, null, null, null, COUNT_ONLY, callback, false);
+                }
+                assertTrue(latch.await(60, TimeUnit.SECONDS));
+            }
+        }));
+    }
+}
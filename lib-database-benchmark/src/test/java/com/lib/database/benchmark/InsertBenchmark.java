@@ -0,0 +1,137 @@
+package com.lib.database.benchmark;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+
+import com.lib.database.annotation.BatchAtomicity;
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 对比逐条插入、bulkInsert 和不同大小的 applyBatch，以及超过 yield 点上限、需要分块的 applyBatch。
+ */
+public class InsertBenchmark extends BaseBenchmark {
+
+    private static final int ROW_COUNT = 1000;
+    private static final int[] BATCH_SIZES = {10, 100, 1000};
+    private static final int OVERSIZED_BATCH_SIZE = 10000;
+
+    private static final BenchmarkReport REPORT = new BenchmarkReport(InsertBenchmark.class.getSimpleName());
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        REPORT.write();
+    }
+
+    @Test
+    public void singleInsert() throws Exception {
+        final List<ContentValues> rows = createRows(ROW_COUNT);
+        REPORT.add(benchmark.measure("singleInsert", ROW_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void setUp() {
+                clearTable();
+            }
+
+            @Override
+            public void run() {
+                for (ContentValues row : rows) {
+                    executor.doSyncInsert(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, row);
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void bulkInsert() throws Exception {
+        final List<ContentValues> rows = createRows(ROW_COUNT);
+        REPORT.add(benchmark.measure("bulkInsert", ROW_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void setUp() {
+                clearTable();
+            }
+
+            @Override
+            public void run() {
+                executor.doSyncBulkInsert(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, rows);
+            }
+        }));
+    }
+
+    @Test
+    public void applyBatch() throws Exception {
+        for (final int batchSize : BATCH_SIZES) {
+            final List<ArrayList<ContentProviderOperation>> batches = createBatches(batchSize);
+            REPORT.add(benchmark.measure("applyBatch_" + batchSize, ROW_COUNT, new Benchmark.Task() {
+
+                @Override
+                public void setUp() {
+                    clearTable();
+                }
+
+                @Override
+                public void run() {
+                    for (ArrayList<ContentProviderOperation> batch : batches) {
+                        executor.doSyncApplyBatch(BenchProvider.AUTHORITY_URI, batch);
+                    }
+                }
+            }));
+        }
+    }
+
+    @Test
+    public void oversizedApplyBatch() throws Exception {
+        final ArrayList<ContentProviderOperation> batch = new ArrayList<>(OVERSIZED_BATCH_SIZE);
+        for (int i = 0; i < OVERSIZED_BATCH_SIZE; i++) {
+            batch.add(ContentProviderOperation.newInsert(executor.getTableUri(BenchProvider.AUTHORITY_URI, BenchTab.TABLE))
+                    .withValues(createRow(i))
+                    .build());
+        }
+        measureOversized("applyBatch_perChunk", batch, BatchAtomicity.PER_CHUNK);
+        measureOversized("applyBatch_wholeBatch", batch, BatchAtomicity.WHOLE_BATCH);
+    }
+
+    private void measureOversized(String name, final ArrayList<ContentProviderOperation> batch, final int atomicity) throws Exception {
+        final int[] resultCount = new int[1];
+        REPORT.add(benchmark.measure(name, OVERSIZED_BATCH_SIZE, new Benchmark.Task() {
+
+            @Override
+            public void setUp() {
+                clearTable();
+            }
+
+            @Override
+            public void run() {
+                resultCount[0] = executor.doSyncApplyBatch(BenchProvider.AUTHORITY_URI, batch, atomicity).length;
+            }
+        }));
+        assertEquals(OVERSIZED_BATCH_SIZE, resultCount[0]);
+    }
+
+    /**
+     * 把 ROW_COUNT 条插入按 batchSize 分成多个 applyBatch。
+     */
+    private List<ArrayList<ContentProviderOperation>> createBatches(int batchSize) {
+        List<ArrayList<ContentProviderOperation>> batches = new ArrayList<>();
+        ArrayList<ContentProviderOperation> batch = null;
+        for (int i = 0; i < ROW_COUNT; i++) {
+            if (batch == null || batch.size() == batchSize) {
+                batch = new ArrayList<>(batchSize);
+                batches.add(batch);
+            }
+            batch.add(ContentProviderOperation.newInsert(executor.getTableUri(BenchProvider.AUTHORITY_URI, BenchTab.TABLE))
+                    .withValues(createRow(i))
+                    .build());
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,163 @@
+package com.lib.database.benchmark;
+
+
+import android.database.Cursor;
+
+import com.lib.database.DbRequest;
+import com.lib.database.PreparedQuery;
+import com.lib.database.RowMappers;
+import com.lib.database.annotation.RequestType;
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+import com.lib.database.callback.IConverter;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 通过 DbWorker 的主键点查（普通请求和 PreparedQuery）、范围查询，以及不同转换器的转换耗时。
+ */
+public class QueryBenchmark extends BaseBenchmark {
+
+    private static final int ROW_COUNT = 10000;
+    private static final int POINT_QUERY_COUNT = 1000;
+    private static final int RANGE_QUERY_COUNT = 100;
+    private static final int RANGE_SIZE = 100;
+
+    private static final BenchmarkReport REPORT = new BenchmarkReport(QueryBenchmark.class.getSimpleName());
+
+    /**
+     * 每一行每一列都按列名查下标的转换器，作为对照。
+     */
+    private static final IConverter<List<BenchRow>> HAND_WRITTEN = new IConverter<List<BenchRow>>() {
+
+        @Override
+        public List<BenchRow> convert(Cursor cursor) {
+            List<BenchRow> list = new ArrayList<>();
+            while (cursor != null && cursor.moveToNext()) {
+                BenchRow row = new BenchRow();
+                row.id = cursor.getLong(cursor.getColumnIndex(BenchTab._ID));
+                row.name = cursor.getString(cursor.getColumnIndex(BenchTab.NAME));
+                row.value = cursor.getLong(cursor.getColumnIndex(BenchTab.VALUE));
+                list.add(row);
+            }
+            if (cursor != null) {
+                cursor.close();
+            }
+            return list;
+        }
+    };
+
+    private static final IConverter<Integer> COUNT_ONLY = new IConverter<Integer>() {
+
+        @Override
+        public Integer convert(Cursor cursor) {
+            int count = cursor.getCount();
+            cursor.close();
+            return count;
+        }
+    };
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        REPORT.write();
+    }
+
+    @Before
+    public void fill() {
+        fillTable(ROW_COUNT);
+    }
+
+    @Test
+    public void pointQuery() throws Exception {
+        final Random random = new Random(42);
+        REPORT.add(benchmark.measure("pointQuery", POINT_QUERY_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < POINT_QUERY_COUNT; i++) {
+                    String id = String.valueOf(random.nextInt(ROW_COUNT) + 1);
+                    List<BenchRow> rows = executor.doSyncQuery(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, null,
+                            BenchTab._ID + " = ?", new String[]{id}, null, null, null, null, HAND_WRITTEN);
+                    assertEquals(1, rows.size());
+                }
+            }
+        }));
+    }
+
+    /**
+     * 与 pointQuery 使用相同的随机 id，差值为每次构造 Uri、Provider 解析参数和创建 SQLiteQueryBuilder 的开销。
+     */
+    @Test
+    public void preparedPointQuery() throws Exception {
+        final Random random = new Random(42);
+        final PreparedQuery<List<BenchRow>> prepared = executor.prepareQuery(BenchProvider.AUTHORITY_URI, new DbRequest.Builder()
+                .tableName(BenchTab.TABLE)
+                .requestType(RequestType.QUERY)
+                .selection(BenchTab._ID + " = ?")
+                .addConverter(HAND_WRITTEN)
+                .build());
+        REPORT.add(benchmark.measure("preparedPointQuery", POINT_QUERY_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < POINT_QUERY_COUNT; i++) {
+                    List<BenchRow> rows = prepared.execute(String.valueOf(random.nextInt(ROW_COUNT) + 1));
+                    assertEquals(1, rows.size());
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void rangeQuery() throws Exception {
+        final Random random = new Random(42);
+        REPORT.add(benchmark.measure("rangeQuery_" + RANGE_SIZE, RANGE_QUERY_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < RANGE_QUERY_COUNT; i++) {
+                    int from = random.nextInt(ROW_COUNT - RANGE_SIZE);
+                    int count = executor.doSyncQuery(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, null,
+                            BenchTab.VALUE + " >= ? AND " + BenchTab.VALUE + " < ?",
+                            new String[]{String.valueOf(from), String.valueOf(from + RANGE_SIZE)},
+                            null, null, null, null, COUNT_ONLY);
+                    assertEquals(RANGE_SIZE, count);
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void converterCost() throws Exception {
+        measureConverter("convert_countOnly", COUNT_ONLY);
+        measureConverter("convert_handWritten", HAND_WRITTEN);
+        measureConverter("convert_generatedRowMapper", new BenchRow_RowMapper());
+        measureConverter("convert_rowMappersLookup", RowMappers.newListConverter(BenchRow.class));
+    }
+
+    /**
+     * 查询全表并转换，与 convert_countOnly 的差值即为转换的开销。
+     */
+    private void measureConverter(String name, final IConverter<?> converter) throws Exception {
+        final DbRequest request = new DbRequest.Builder()
+                .tableName(BenchTab.TABLE)
+                .requestType(RequestType.QUERY)
+                .projection(new String[]{BenchTab._ID, BenchTab.NAME, BenchTab.VALUE})
+                .addConverter(converter)
+                .build();
+        REPORT.add(benchmark.measure(name, ROW_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                executor.doSync(BenchProvider.AUTHORITY_URI, request);
+            }
+        }));
+    }
+}
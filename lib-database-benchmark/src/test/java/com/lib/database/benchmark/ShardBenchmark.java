@@ -0,0 +1,174 @@
+package com.lib.database.benchmark;
+
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+
+import com.lib.database.DbRequest;
+import com.lib.database.ShardedDatabase;
+import com.lib.database.annotation.RequestType;
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+import com.lib.database.callback.IConverter;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.Robolectric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 同样的数据分别写入一个数据库和四个分片，对比批量插入和按 value 排序取前 100 行的耗时，并检查归并结果与单库一致。
+ */
+public class ShardBenchmark extends BaseBenchmark {
+
+    private static final int ROW_COUNT = 4000;
+    private static final int QUERY_COUNT = 100;
+    private static final String TOP_LIMIT = "100";
+    private static final String TOP_ORDER = BenchTab.VALUE + " DESC, " + BenchTab.NAME;
+
+    private static final BenchmarkReport REPORT = new BenchmarkReport(ShardBenchmark.class.getSimpleName());
+
+    private static final IConverter<List<Long>> VALUES = new IConverter<List<Long>>() {
+
+        @Override
+        public List<Long> convert(Cursor cursor) {
+            List<Long> values = new ArrayList<>(cursor.getCount());
+            int index = cursor.getColumnIndexOrThrow(BenchTab.VALUE);
+            while (cursor.moveToNext()) {
+                values.add(cursor.getLong(index));
+            }
+            cursor.close();
+            return values;
+        }
+    };
+
+    private ShardedDatabase shardedDatabase;
+
+    @AfterClass
+    public static void writeReport() throws Exception {
+        REPORT.write();
+    }
+
+    @Before
+    public void setUpShards() {
+        ShardedDatabase.Builder builder = new ShardedDatabase.Builder()
+                .executor(executor)
+                .shardKeyColumn(BenchTab.TABLE, BenchTab.NAME);
+        Class[] shardClasses = {Shard0.class, Shard1.class, Shard2.class, Shard3.class};
+        for (int i = 0; i < shardClasses.length; i++) {
+            Robolectric.setupContentProvider(shardClasses[i], "bench-shard-" + i);
+            builder.addShard(Uri.parse("content://bench-shard-" + i));
+        }
+        shardedDatabase = builder.build();
+    }
+
+    @Test
+    public void bulkInsert() throws Exception {
+        final List<ContentValues> rows = createRows(ROW_COUNT);
+        REPORT.add(benchmark.measure("singleBulkInsert", ROW_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void setUp() {
+                clearTable();
+            }
+
+            @Override
+            public void run() {
+                executor.doSyncBulkInsert(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, rows);
+            }
+        }));
+        REPORT.add(benchmark.measure("shardedBulkInsert", ROW_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void setUp() {
+                shardedDatabase.delete(BenchTab.TABLE, null, null);
+            }
+
+            @Override
+            public void run() {
+                shardedDatabase.bulkInsert(BenchTab.TABLE, rows);
+            }
+        }));
+        assertEquals(ROW_COUNT, shardedDatabase.count(BenchTab.TABLE, null, null));
+    }
+
+    @Test
+    public void topQuery() throws Exception {
+        fillTable(ROW_COUNT);
+        shardedDatabase.delete(BenchTab.TABLE, null, null);
+        shardedDatabase.bulkInsert(BenchTab.TABLE, createRows(ROW_COUNT));
+        REPORT.add(benchmark.measure("singleTopQuery", QUERY_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < QUERY_COUNT; i++) {
+                    executor.doSync(BenchProvider.AUTHORITY_URI, createTopRequest());
+                }
+            }
+        }));
+        REPORT.add(benchmark.measure("shardedTopQuery", QUERY_COUNT, new Benchmark.Task() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < QUERY_COUNT; i++) {
+                    shardedDatabase.query(createTopRequest());
+                }
+            }
+        }));
+        List<Long> expected = (List<Long>) executor.doSync(BenchProvider.AUTHORITY_URI, createTopRequest()).getValue();
+        List<Long> merged = shardedDatabase.query(createTopRequest());
+        assertEquals(expected, merged);
+        assertEquals((double) (ROW_COUNT - 1) * ROW_COUNT / 2, shardedDatabase.sum(BenchTab.TABLE, BenchTab.VALUE, null, null), 0);
+        assertEquals(ROW_COUNT - 1L, shardedDatabase.max(BenchTab.TABLE, BenchTab.VALUE, null, null));
+    }
+
+    private static DbRequest createTopRequest() {
+        return new DbRequest.Builder()
+                .tableName(BenchTab.TABLE)
+                .requestType(RequestType.QUERY)
+                .projection(BenchTab.VALUE)
+                .sortOrder(TOP_ORDER)
+                .limit(TOP_LIMIT)
+                .addConverter(VALUES)
+                .build();
+    }
+
+    public static class Shard0 extends BenchProvider {
+
+        @Override
+        public SQLiteOpenHelper getDatabaseHelper(Context context) {
+            return new BenchDbHelper(context, "bench-shard-0.db");
+        }
+    }
+
+    public static class Shard1 extends BenchProvider {
+
+        @Override
+        public SQLiteOpenHelper getDatabaseHelper(Context context) {
+            return new BenchDbHelper(context, "bench-shard-1.db");
+        }
+    }
+
+    public static class Shard2 extends BenchProvider {
+
+        @Override
+        public SQLiteOpenHelper getDatabaseHelper(Context context) {
+            return new BenchDbHelper(context, "bench-shard-2.db");
+        }
+    }
+
+    public static class Shard3 extends BenchProvider {
+
+        @Override
+        public SQLiteOpenHelper getDatabaseHelper(Context context) {
+            return new BenchDbHelper(context, "bench-shard-3.db");
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.lib.database.benchmark;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.lib.database.callback.IApplyBatchCallback;
+import com.lib.database.callback.IDeleteCallback;
+import com.lib.database.callback.IInsertCallback;
+import com.lib.database.benchmark.BenchDbHelper.BenchTab;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 写合并：合并后每个请求各自的结果、合并事务失败后逐个重新执行，以及不能合并的请求前后的执行顺序。
+ */
+public class WriteCoalescerTest extends BaseBenchmark {
+
+    private static final int WRITE_COUNT = 20;
+    private static final long WINDOW_MILLIS = 50;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Before
+    public void enableCoalescing() {
+        clearTable();
+        executor.enableWriteCoalescing(BenchProvider.AUTHORITY_URI, 100, WINDOW_MILLIS);
+    }
+
+    @Test
+    public void eachWriteGetsItsOwnResult() throws Exception {
+        final List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < WRITE_COUNT; i++) {
+            executor.doAsyncInsert(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, createRow(i), new IInsertCallback() {
+
+                @Override
+                public void onInsertComplete(long id) {
+                    synchronized (ids) {
+                        ids.add(id);
+                    }
+                }
+            }, false);
+        }
+        final AtomicInteger deleted = new AtomicInteger(-1);
+        Future last = executor.doAsyncDelete(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, BenchTab.NAME + " = ?",
+                new String[]{"row-0"}, new IDeleteCallback() {
+
+                    @Override
+                    public void onDeleteComplete(int count) {
+                        deleted.set(count);
+                    }
+                }, false);
+        last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        synchronized (ids) {
+            assertEquals(WRITE_COUNT, ids.size());
+            Set<Long> distinct = new HashSet<>(ids);
+            assertEquals(WRITE_COUNT, distinct.size());
+            for (long id : ids) {
+                assertTrue("id=" + id, id > 0);
+            }
+        }
+        //删除在所有插入之后执行。
+        assertEquals(1, deleted.get());
+        assertEquals(WRITE_COUNT - 1, count());
+    }
+
+    @Test
+    public void failedBatchIsReplayedOneByOne() throws Exception {
+        final long[] ids = new long[5];
+        Future last = null;
+        for (int i = 0; i < ids.length; i++) {
+            final int index = i;
+            //第 3 个请求写入不存在的表，合并的事务失败后其他请求仍然成功。
+            String table = i == 2 ? "missing" : BenchTab.TABLE;
+            last = executor.doAsyncInsert(BenchProvider.AUTHORITY_URI, table, createRow(i), new IInsertCallback() {
+
+                @Override
+                public void onInsertComplete(long id) {
+                    ids[index] = id;
+                }
+            }, false);
+        }
+        last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 2) {
+                //失败的请求没有得到 id：返回 -1，或者抛出异常、没有回调。
+                assertTrue("ids[2]=" + ids[i], ids[i] <= 0);
+            } else {
+                assertTrue("ids[" + i + "]=" + ids[i], ids[i] > 0);
+            }
+        }
+        assertEquals(ids.length - 1, count());
+    }
+
+    @Test
+    public void barrierKeepsSubmissionOrder() throws Exception {
+        for (int i = 0; i < WRITE_COUNT; i++) {
+            executor.doAsyncInsert(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, createRow(i), null, false);
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(executor.getTableUri(BenchProvider.AUTHORITY_URI, BenchTab.TABLE)).build());
+        final AtomicReference<ContentProviderResult[]> batchResults = new AtomicReference<>();
+        executor.doAsyncApplyBatch(BenchProvider.AUTHORITY_URI, operations, new IApplyBatchCallback() {
+
+            @Override
+            public void onApplyBatchComplete(ContentProviderResult[] results) {
+                batchResults.set(results);
+            }
+        });
+        ContentValues after = createRow(WRITE_COUNT);
+        Future last = executor.doAsyncInsert(BenchProvider.AUTHORITY_URI, BenchTab.TABLE, after, null, false);
+        last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        //applyBatch 删除了之前的所有插入，之后的插入不受影响。
+        assertEquals(WRITE_COUNT, (int) batchResults.get()[0].count);
+        assertEquals(1, count());
+    }
+
+    private int count() {
+        Uri uri = executor.getTableUri(BenchProvider.AUTHORITY_URI, BenchTab.TABLE);
+        Cursor cursor = provider.query(uri, new String[]{BenchTab._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
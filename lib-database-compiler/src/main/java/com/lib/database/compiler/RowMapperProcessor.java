@@ -0,0 +1,311 @@
+package com.lib.database.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * 为 @RowBean 标记的类生成 "类名_RowMapper"。转换整个 Cursor 时先把所有列的下标解析到局部变量中，
+ * 之后每一行只调用类型对应的 getter，避免在循环中反复按列名查找。生成的类没有成员变量，可以在多个线程中共享同一个实例。
+ * 转换整个 Cursor 时每隔 {@link #CANCEL_CHECK_INTERVAL} 行检查一次是否已被取消。
+ */
+public class RowMapperProcessor extends AbstractProcessor {
+
+    private static final String ROW_BEAN = "com.lib.database.annotation.RowBean";
+    private static final String COLUMN = "com.lib.database.annotation.Column";
+    private static final String SUFFIX = "_RowMapper";
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    /**
+     * 字段类型到 Cursor 读取表达式的映射，%s 为列下标。
+     */
+    private static final Map<String, String> GETTERS = new HashMap<>();
+
+    static {
+        GETTERS.put("long", "cursor.getLong(%s)");
+        GETTERS.put("java.lang.Long", "cursor.getLong(%s)");
+        GETTERS.put("int", "cursor.getInt(%s)");
+        GETTERS.put("java.lang.Integer", "cursor.getInt(%s)");
+        GETTERS.put("short", "cursor.getShort(%s)");
+        GETTERS.put("java.lang.Short", "cursor.getShort(%s)");
+        GETTERS.put("double", "cursor.getDouble(%s)");
+        GETTERS.put("java.lang.Double", "cursor.getDouble(%s)");
+        GETTERS.put("float", "cursor.getFloat(%s)");
+        GETTERS.put("java.lang.Float", "cursor.getFloat(%s)");
+        GETTERS.put("boolean", "cursor.getInt(%s) != 0");
+        GETTERS.put("java.lang.Boolean", "cursor.getInt(%s) != 0");
+        GETTERS.put("java.lang.String", "cursor.getString(%s)");
+        GETTERS.put("byte[]", "cursor.getBlob(%s)");
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ROW_BEAN);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@RowBean can only be used on classes");
+                    continue;
+                }
+                TypeElement bean = (TypeElement) element;
+                if (!checkBean(bean)) {
+                    continue;
+                }
+                List<ColumnField> fields = collectFields(bean);
+                if (fields == null) {
+                    continue;
+                }
+                try {
+                    writeMapper(bean, fields);
+                } catch (IOException e) {
+                    error(bean, "failed to write row mapper: " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean checkBean(TypeElement bean) {
+        if (bean.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(bean, "@RowBean class must not be abstract");
+            return false;
+        }
+        if (bean.getNestingKind() != NestingKind.TOP_LEVEL && !bean.getModifiers().contains(Modifier.STATIC)) {
+            error(bean, "@RowBean inner class must be static");
+            return false;
+        }
+        boolean hasConstructor = false;
+        boolean hasNoArgConstructor = false;
+        for (Element enclosed : bean.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.CONSTRUCTOR) {
+                hasConstructor = true;
+                ExecutableElement constructor = (ExecutableElement) enclosed;
+                if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                    hasNoArgConstructor = true;
+                }
+            }
+        }
+        if (hasConstructor && !hasNoArgConstructor) {
+            error(bean, "@RowBean class needs a non-private no-arg constructor");
+            return false;
+        }
+        return true;
+    }
+
+    private List<ColumnField> collectFields(TypeElement bean) {
+        List<ColumnField> fields = new ArrayList<>();
+        boolean valid = true;
+        for (Element enclosed : bean.getEnclosedElements()) {
+            if (enclosed.getKind() != ElementKind.FIELD) {
+                continue;
+            }
+            AnnotationMirror column = findAnnotation(enclosed, COLUMN);
+            if (column == null) {
+                continue;
+            }
+            VariableElement field = (VariableElement) enclosed;
+            String fieldName = field.getSimpleName().toString();
+            String type = field.asType().toString();
+            if (!GETTERS.containsKey(type)) {
+                error(field, "unsupported @Column type " + type);
+                valid = false;
+                continue;
+            }
+            String columnName = getAnnotationValue(column);
+            if (columnName == null || columnName.isEmpty()) {
+                columnName = fieldName;
+            }
+            String setter = null;
+            if (field.getModifiers().contains(Modifier.PRIVATE)) {
+                setter = findSetter(bean, fieldName, field.asType());
+                if (setter == null) {
+                    error(field, "private @Column field needs a setter set" + capitalize(fieldName) + "(" + type + ")");
+                    valid = false;
+                    continue;
+                }
+            }
+            if (field.getModifiers().contains(Modifier.FINAL) || field.getModifiers().contains(Modifier.STATIC)) {
+                error(field, "@Column field must not be final or static");
+                valid = false;
+                continue;
+            }
+            fields.add(new ColumnField(fieldName, columnName, type, setter));
+        }
+        return valid ? fields : null;
+    }
+
+    private String findSetter(TypeElement bean, String fieldName, TypeMirror type) {
+        String name = "set" + capitalize(fieldName);
+        for (Element enclosed : bean.getEnclosedElements()) {
+            if (enclosed.getKind() != ElementKind.METHOD || !enclosed.getSimpleName().contentEquals(name)
+                    || enclosed.getModifiers().contains(Modifier.PRIVATE)) {
+                continue;
+            }
+            List<? extends VariableElement> parameters = ((ExecutableElement) enclosed).getParameters();
+            if (parameters.size() == 1 && processingEnv.getTypeUtils().isSameType(parameters.get(0).asType(), type)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private void writeMapper(TypeElement bean, List<ColumnField> fields) throws IOException {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(bean);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(bean).toString();
+        String mapperName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+        String beanName = bean.getQualifiedName().toString();
+
+        StringBuilder code = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            code.append("package ").append(packageName).append(";\n\n");
+        }
+        code.append("import android.database.Cursor;\n")
+                .append("import android.support.v4.os.CancellationSignal;\n")
+                .append("import com.lib.database.callback.ICancelableConverter;\n")
+                .append("import com.lib.database.callback.IRowMapper;\n")
+                .append("import java.util.ArrayList;\n")
+                .append("import java.util.List;\n\n")
+                .append("/**\n * Generated by RowMapperProcessor from ").append(beanName).append(", do not edit.\n */\n")
+                .append("public final class ").append(mapperName)
+                .append(" implements IRowMapper<").append(beanName).append(">, ICancelableConverter<List<").append(beanName).append(">> {\n");
+
+        code.append("\n    /**\n     * 单独转换一行时每次都要查找列的下标，转换整个 Cursor 时使用 {@link #convert}。\n     */\n")
+                .append("    @Override\n    public ").append(beanName).append(" mapRow(Cursor cursor) {\n")
+                .append("        return readRow(cursor");
+        for (ColumnField field : fields) {
+            code.append(", cursor.getColumnIndex(\"").append(field.columnName).append("\")");
+        }
+        code.append(");\n    }\n");
+
+        code.append("\n    @Override\n    public List<").append(beanName).append("> convert(Cursor cursor) {\n")
+                .append("        return convert(cursor, null);\n    }\n");
+
+        code.append("\n    @Override\n    public List<").append(beanName).append("> convert(Cursor cursor, CancellationSignal signal) {\n")
+                .append("        if (cursor == null) {\n")
+                .append("            return new ArrayList<>();\n")
+                .append("        }\n")
+                .append("        List<").append(beanName).append("> list = new ArrayList<>(cursor.getCount());\n")
+                .append("        try {\n");
+        for (ColumnField field : fields) {
+            code.append("            int ").append(field.indexName()).append(" = cursor.getColumnIndex(\"").append(field.columnName).append("\");\n");
+        }
+        code.append("            while (cursor.moveToNext()) {\n")
+                .append("                if (signal != null && list.size() % ").append(CANCEL_CHECK_INTERVAL).append(" == 0) {\n")
+                .append("                    signal.throwIfCanceled();\n")
+                .append("                }\n")
+                .append("                list.add(readRow(cursor");
+        for (ColumnField field : fields) {
+            code.append(", ").append(field.indexName());
+        }
+        code.append("));\n")
+                .append("            }\n")
+                .append("        } finally {\n")
+                .append("            cursor.close();\n")
+                .append("        }\n")
+                .append("        return list;\n    }\n");
+
+        code.append("\n    private static ").append(beanName).append(" readRow(Cursor cursor");
+        for (ColumnField field : fields) {
+            code.append(", int ").append(field.indexName());
+        }
+        code.append(") {\n")
+                .append("        ").append(beanName).append(" bean = new ").append(beanName).append("();\n");
+        for (ColumnField field : fields) {
+            String value = String.format(GETTERS.get(field.type), field.indexName());
+            code.append("        if (").append(field.indexName()).append(" >= 0 && !cursor.isNull(").append(field.indexName()).append(")) {\n");
+            if (field.setter != null) {
+                code.append("            bean.").append(field.setter).append("(").append(value).append(");\n");
+            } else {
+                code.append("            bean.").append(field.fieldName).append(" = ").append(value).append(";\n");
+            }
+            code.append("        }\n");
+        }
+        code.append("        return bean;\n    }\n}\n");
+
+        String qualifiedMapperName = packageName.isEmpty() ? mapperName : packageName + "." + mapperName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedMapperName, bean);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(code.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static AnnotationMirror findAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().toString().equals(annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static String getAnnotationValue(AnnotationMirror mirror) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return (String) entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static class ColumnField {
+
+        final String fieldName;
+        final String columnName;
+        final String type;
+        final String setter;
+
+        ColumnField(String fieldName, String columnName, String type, String setter) {
+            this.fieldName = fieldName;
+            this.columnName = columnName;
+            this.type = type;
+            this.setter = setter;
+        }
+
+        String indexName() {
+            return fieldName + "Index";
+        }
+    }
+}
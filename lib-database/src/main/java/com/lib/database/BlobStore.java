@@ -0,0 +1,282 @@
+package com.lib.database;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 把超过阈值的 BLOB 写到数据库旁边的目录中，文件名为内容的 SHA-1，行中只保存 "blob:sha1:&lt;hash&gt;" 形式的引用。
+ * 内容相同的值共用一个文件，因此删除和覆盖时不能直接删文件，而是用标记-清除回收：
+ * 扫描所有 BLOB 列中的引用，删除没有被引用、且超过 {@link #GC_GRACE_MILLIS} 没有被写入的文件。
+ */
+class BlobStore {
+
+    private static final String TAG = "BlobStore";
+
+    static final String REFERENCE_PREFIX = "blob:sha1:";
+    /**
+     * 文件写入后、引用它的行提交前可能正好被扫描到，在该时间内写入或复用过的文件不会被回收。
+     */
+    static final long GC_GRACE_MILLIS = 10 * 60 * 1000L;
+    private static final long GC_DELAY_MILLIS = 60 * 1000L;
+    private static final int HASH_LENGTH = 40;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final int threshold;
+    private final boolean sync;
+    private final AtomicBoolean gcScheduled = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param sync 为 true 时文件写完后同步到磁盘再保存引用。
+     */
+    BlobStore(File directory, int threshold, boolean sync) {
+        this.directory = directory;
+        this.threshold = threshold;
+        this.sync = sync;
+    }
+
+    static boolean isReference(Object value) {
+        return value instanceof String && ((String) value).startsWith(REFERENCE_PREFIX)
+                && isValidHash(((String) value).substring(REFERENCE_PREFIX.length()));
+    }
+
+    /**
+     * @return 引用中的 hash，不是合法的引用时返回 null。
+     */
+    static String getHash(String reference) {
+        return isReference(reference) ? reference.substring(REFERENCE_PREFIX.length()) : null;
+    }
+
+    /**
+     * hash 只能是 40 位小写十六进制，避免通过 openFile 访问目录外的文件。
+     */
+    static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把 values 中超过阈值的 byte[] 写到文件并替换成引用，没有需要替换的值时返回原对象。
+     */
+    ContentValues offload(ContentValues values) throws IOException {
+        if (values == null) {
+            return null;
+        }
+        ContentValues result = values;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            Object value = entry.getValue();
+            if (!(value instanceof byte[]) || ((byte[]) value).length < threshold) {
+                continue;
+            }
+            if (result == values) {
+                //调用方的 ContentValues 可能还会被复用，不修改原对象。
+                result = new ContentValues(values);
+            }
+            result.put(entry.getKey(), store((byte[]) value));
+        }
+        return result;
+    }
+
+    /**
+     * @return 文件的引用，内容相同的文件已存在时只更新它的修改时间。
+     */
+    String store(byte[] data) throws IOException {
+        String hash = sha1(data);
+        File file = getFile(hash);
+        if (file.exists() && file.length() == data.length) {
+            //更新修改时间，正在进行的回收会认为它刚被写入，不会删除。
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                Log.w(TAG, "store, can not touch " + file);
+            }
+            return REFERENCE_PREFIX + hash;
+        }
+        if (!directory.exists() && !directory.mkdirs() && !directory.exists()) {
+            throw new IOException("can not create blob directory " + directory);
+        }
+        //先写临时文件再重命名，读取方不会看到写了一半的文件。
+        File temp = File.createTempFile(hash, TEMP_SUFFIX, directory);
+        FileOutputStream output = new FileOutputStream(temp);
+        try {
+            output.write(data);
+            if (sync) {
+                output.getFD().sync();
+            }
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("can not rename " + temp + " to " + file);
+        }
+        return REFERENCE_PREFIX + hash;
+    }
+
+    File getFile(String hash) {
+        return new File(directory, hash);
+    }
+
+    /**
+     * 合并一段时间内的多次调用，只执行一次回收。
+     */
+    void scheduleCollect(final Runnable collector) {
+        if (!gcScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        getScheduler().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                gcScheduled.set(false);
+                collector.run();
+            }
+        }, GC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 标记-清除：先收集所有表中 BLOB 列和未声明类型的列里的引用，再删除没有被引用的过期文件。
+     * @return 删除的文件数。
+     */
+    int collectGarbage(SQLiteDatabase db) {
+        File[] files = directory.listFiles();
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+        //在标记之前确定截止时间，标记期间新写入的文件一定不会被删除。
+        long deadline = System.currentTimeMillis() - GC_GRACE_MILLIS;
+        Set<String> referenced;
+        try {
+            referenced = markReferences(db);
+        } catch (SQLException e) {
+            Log.w(TAG, "collectGarbage, can not scan references", e);
+            return 0;
+        }
+        int deleted = 0;
+        for (File file : files) {
+            String name = file.getName();
+            boolean orphan = name.endsWith(TEMP_SUFFIX) || (isValidHash(name) && !referenced.contains(name));
+            if (orphan && file.lastModified() < deadline && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private Set<String> markReferences(SQLiteDatabase db) {
+        Set<String> referenced = new HashSet<>();
+        for (String table : queryTables(db)) {
+            for (String column : queryBlobColumns(db, table)) {
+                Cursor cursor = db.rawQuery("SELECT " + column + " FROM " + table
+                                + " WHERE typeof(" + column + ")='text' AND substr(" + column + ",1," + REFERENCE_PREFIX.length() + ")=?",
+                        new String[]{REFERENCE_PREFIX});
+                try {
+                    while (cursor.moveToNext()) {
+                        String hash = getHash(cursor.getString(0));
+                        if (hash != null) {
+                            referenced.add(hash);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+        return referenced;
+    }
+
+    private static List<String> queryTables(SQLiteDatabase db) {
+        List<String> tables = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                tables.add("\"" + cursor.getString(0) + "\"");
+            }
+        } finally {
+            cursor.close();
+        }
+        return tables;
+    }
+
+    /**
+     * 只有超过阈值的 byte[] 才会被替换成引用，它们只会出现在声明为 BLOB 或未声明类型的列中。
+     */
+    private static List<String> queryBlobColumns(SQLiteDatabase db, String table) {
+        List<String> columns = new ArrayList<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int typeIndex = cursor.getColumnIndexOrThrow("type");
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(typeIndex);
+                if (type == null || type.isEmpty() || type.toUpperCase(Locale.US).contains("BLOB")) {
+                    columns.add("\"" + cursor.getString(nameIndex) + "\"");
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BlobStore");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    private static String sha1(byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(data);
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,117 @@
+package com.lib.database;
+
+
+/**
+ * 有容量上限的缓存表，通过 {@link DbConfig.Builder#boundedTable} 注册。
+ * 总字节数或总行数超过上限后，Provider 在后台按访问时间从旧到新分批删除，直到回到上限以内。
+ * 访问时间通过 {@link DbExecutor#touch} 批量更新，读操作本身不会写数据库。
+ */
+public class BoundedTable {
+
+    public static final int DEFAULT_EVICT_BATCH_SIZE = 64;
+
+    private String tableName;
+    private String sizeColumn;
+    private String accessTimeColumn;
+    private long maxBytes;
+    private long maxRows;
+    private int evictBatchSize;
+
+    public BoundedTable(Builder builder) {
+        if (builder.tableName == null || builder.accessTimeColumn == null) {
+            throw new IllegalArgumentException("bounded table needs tableName and accessTimeColumn");
+        }
+        if (builder.maxBytes > 0 && builder.sizeColumn == null) {
+            throw new IllegalArgumentException("maxBytes needs sizeColumn, table=" + builder.tableName);
+        }
+        this.tableName = builder.tableName;
+        this.sizeColumn = builder.sizeColumn;
+        this.accessTimeColumn = builder.accessTimeColumn;
+        this.maxBytes = builder.maxBytes;
+        this.maxRows = builder.maxRows;
+        this.evictBatchSize = builder.evictBatchSize;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getSizeColumn() {
+        return sizeColumn;
+    }
+
+    public String getAccessTimeColumn() {
+        return accessTimeColumn;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxRows() {
+        return maxRows;
+    }
+
+    public int getEvictBatchSize() {
+        return evictBatchSize;
+    }
+
+    public static class Builder {
+
+        private String tableName;
+        private String sizeColumn;
+        private String accessTimeColumn;
+        private long maxBytes;
+        private long maxRows;
+        private int evictBatchSize = DEFAULT_EVICT_BATCH_SIZE;
+
+        public Builder tableName(String tableName) {
+            this.tableName = tableName;
+            return this;
+        }
+
+        /**
+         * 保存每一行大小的列，设置 maxBytes 时必须提供。
+         */
+        public Builder sizeColumn(String sizeColumn) {
+            this.sizeColumn = sizeColumn;
+            return this;
+        }
+
+        /**
+         * 保存最近访问时间的列，插入时没有提供则使用当前时间，淘汰时按该列从小到大删除，建议为该列建索引。
+         */
+        public Builder accessTimeColumn(String accessTimeColumn) {
+            this.accessTimeColumn = accessTimeColumn;
+            return this;
+        }
+
+        /**
+         * sizeColumn 的总和上限，为 0 时不限制。
+         */
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * 行数上限，为 0 时不限制。
+         */
+        public Builder maxRows(long maxRows) {
+            this.maxRows = maxRows;
+            return this;
+        }
+
+        /**
+         * 每个事务最多删除的行数，批次之间让出数据库，避免长时间阻塞其他读写。
+         */
+        public Builder evictBatchSize(int evictBatchSize) {
+            this.evictBatchSize = evictBatchSize;
+            return this;
+        }
+
+        public BoundedTable build() {
+            return new BoundedTable(this);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.lib.database;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 维护 {@link BoundedTable} 的总字节数和总行数，超过上限时在后台线程按访问时间淘汰最旧的行。
+ * 总量在插入、删除和更新时增量维护，ON CONFLICT REPLACE 覆盖的行和回滚的事务会让它偏大，
+ * 因此只作为是否需要淘汰的估计值，淘汰前会重新统计一次准确值。
+ */
+class CacheEvictor {
+
+    private static final String TAG = "CacheEvictor";
+
+    /**
+     * 两批淘汰之间让出数据库的时间。
+     */
+    private static final long YIELD_MILLIS = 20;
+    /**
+     * 更新访问时间时每条语句最多包含的 rowid 数。
+     */
+    private static final int TOUCH_CHUNK_SIZE = 500;
+
+    private final SQLiteContentProvider provider;
+    private final Map<String, Tracker> trackers = new HashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private ExecutorService executor;
+
+    CacheEvictor(SQLiteContentProvider provider, List<BoundedTable> tables) {
+        this.provider = provider;
+        for (BoundedTable table : tables) {
+            trackers.put(table.getTableName(), new Tracker(table));
+        }
+    }
+
+    /**
+     * @return 表没有注册上限时返回 null。
+     */
+    Tracker get(String tableName) {
+        return tableName != null ? trackers.get(tableName) : null;
+    }
+
+    /**
+     * 事务结束后调用，有表超过上限时安排一次淘汰，淘汰进行中时不会重复安排。
+     */
+    void scheduleIfNeeded() {
+        boolean overLimit = false;
+        for (Tracker tracker : trackers.values()) {
+            overLimit |= tracker.isOverLimit();
+        }
+        if (!overLimit || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        getExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (Tracker tracker : trackers.values()) {
+                        if (tracker.isOverLimit()) {
+                            evict(tracker);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "evict failed", e);
+                } finally {
+                    scheduled.set(false);
+                }
+            }
+        });
+    }
+
+    private void evict(Tracker tracker) {
+        BoundedTable table = tracker.table;
+        Uri uri = tracker.uri;
+        if (uri == null) {
+            return;
+        }
+        SQLiteDatabase db = provider.getWritableDatabase();
+        tracker.sync(db);
+        String sql = "SELECT rowid FROM " + table.getTableName()
+                + " ORDER BY " + table.getAccessTimeColumn() + " ASC LIMIT " + table.getEvictBatchSize();
+        while (tracker.isOverLimit() && !Thread.currentThread().isInterrupted()) {
+            String rowIds = queryRowIds(db, sql);
+            if (rowIds == null) {
+                break;
+            }
+            //通过 Provider 删除，总量、变化通知和 BLOB 文件回收与普通的删除一致。每一批是单独的事务。
+            if (provider.delete(uri, "rowid IN (" + rowIds + ")", null) == 0) {
+                break;
+            }
+            try {
+                Thread.sleep(YIELD_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return 逗号分隔的 rowid，表为空时返回 null。
+     */
+    private static String queryRowIds(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            if (cursor.getCount() == 0) {
+                return null;
+            }
+            StringBuilder rowIds = new StringBuilder(cursor.getCount() * 8);
+            while (cursor.moveToNext()) {
+                rowIds.append(rowIds.length() > 0 ? "," : "").append(cursor.getLong(0));
+            }
+            return rowIds.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 在一个事务中更新访问时间，不发出变化通知，观察者不会因为读操作而刷新。
+     * @return 更新的行数。
+     */
+    int touch(SQLiteDatabase db, String tableName, long[] rowIds, long accessTime) {
+        Tracker tracker = get(tableName);
+        if (tracker == null || rowIds == null || rowIds.length == 0) {
+            return 0;
+        }
+        String prefix = "UPDATE " + tableName + " SET " + tracker.table.getAccessTimeColumn() + "=" + accessTime + " WHERE rowid IN (";
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (int start = 0; start < rowIds.length; start += TOUCH_CHUNK_SIZE) {
+                int end = Math.min(rowIds.length, start + TOUCH_CHUNK_SIZE);
+                StringBuilder sql = new StringBuilder(prefix.length() + (end - start) * 8).append(prefix);
+                for (int i = start; i < end; i++) {
+                    sql.append(i > start ? "," : "").append(rowIds[i]);
+                }
+                db.execSQL(sql.append(')').toString());
+                count += end - start;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CacheEvictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    static class Tracker {
+
+        final BoundedTable table;
+        /**
+         * 最近一次插入使用的 Uri，淘汰时使用同一个 Uri 删除，观察者才能收到通知。
+         */
+        volatile Uri uri;
+        private long bytes;
+        private long rows;
+        private boolean synced;
+
+        Tracker(BoundedTable table) {
+            this.table = table;
+        }
+
+        /**
+         * 第一次插入前统计一次总量，并为没有提供访问时间的行补上当前时间。
+         */
+        ContentValues prepareInsert(SQLiteDatabase db, Uri uri, ContentValues values) {
+            this.uri = uri;
+            if (!isSynced()) {
+                sync(db);
+            }
+            if (values != null && values.containsKey(table.getAccessTimeColumn())) {
+                return values;
+            }
+            ContentValues result = values != null ? new ContentValues(values) : new ContentValues();
+            result.put(table.getAccessTimeColumn(), System.currentTimeMillis());
+            return result;
+        }
+
+        void onInserted(ContentValues values) {
+            add(1, sizeOf(values));
+        }
+
+        long sizeOf(ContentValues values) {
+            if (table.getSizeColumn() == null || values == null) {
+                return 0;
+            }
+            Long size = values.getAsLong(table.getSizeColumn());
+            return size != null ? size : 0;
+        }
+
+        synchronized void add(long rowDelta, long byteDelta) {
+            rows += rowDelta;
+            bytes += byteDelta;
+        }
+
+        synchronized boolean isOverLimit() {
+            return synced && ((table.getMaxRows() > 0 && rows > table.getMaxRows())
+                    || (table.getMaxBytes() > 0 && bytes > table.getMaxBytes()));
+        }
+
+        synchronized boolean isSynced() {
+            return synced;
+        }
+
+        /**
+         * 在写事务中统计准确的总量，期间其他写操作不会修改总量。
+         * 插入时已经持有数据库的写锁，因此等待写锁时不能持有 Tracker 的锁。
+         */
+        void sync(SQLiteDatabase db) {
+            db.beginTransaction();
+            try {
+                long[] totals = queryTotals(db, null, null);
+                synchronized (this) {
+                    rows = totals[0];
+                    bytes = totals[1];
+                    synced = true;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        /**
+         * @return 满足条件的行数和 sizeColumn 的总和，查询失败时返回 0。
+         */
+        long[] queryTotals(SQLiteDatabase db, String selection, String[] selectionArgs) {
+            String sum = table.getSizeColumn() != null ? "TOTAL(" + table.getSizeColumn() + ")" : "0";
+            String sql = "SELECT COUNT(*), " + sum + " FROM " + table.getTableName()
+                    + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection);
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(sql, selectionArgs);
+                if (cursor.moveToFirst()) {
+                    return new long[]{cursor.getLong(0), cursor.getLong(1)};
+                }
+            } catch (SQLException e) {
+                Log.w(TAG, "queryTotals, can not query " + table.getTableName(), e);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            return new long[2];
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.lib.database;
+
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 把需要在主线程执行的回调攒起来，每一帧（API 16 以下为每次 Handler 消息）集中执行一次，
+ * 大量请求同时完成时不会产生大量主线程消息。每次执行超过时间预算后，剩下的回调留到下一帧。
+ */
+class CallbackDispatcher implements Executor {
+
+    static final long DEFAULT_BUDGET_MILLIS = 4;
+
+    private final Handler mainHandler;
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long budgetNanos = DEFAULT_BUDGET_MILLIS * 1000000;
+
+    /**
+     * 主线程的 Choreographer，只能在主线程获取，第一次执行回调时初始化。
+     */
+    private volatile Object choreographer;
+    private Object frameCallback;
+
+    private final Runnable dispatchTask = new Runnable() {
+
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && choreographer == null) {
+                initChoreographer();
+            }
+            dispatchPending();
+        }
+    };
+
+    CallbackDispatcher(Handler mainHandler) {
+        this.mainHandler = mainHandler;
+    }
+
+    void setBudgetMillis(long budgetMillis) {
+        if (budgetMillis <= 0) {
+            throw new IllegalArgumentException("budgetMillis must be positive, budgetMillis=" + budgetMillis);
+        }
+        this.budgetNanos = budgetMillis * 1000000;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        pending.offer(runnable);
+        scheduleIfNeeded();
+    }
+
+    private void scheduleIfNeeded() {
+        if (pending.isEmpty() || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (choreographer != null) {
+            postFrameCallback();
+        } else {
+            mainHandler.post(dispatchTask);
+        }
+    }
+
+    private void dispatchPending() {
+        long deadline = System.nanoTime() + budgetNanos;
+        try {
+            Runnable runnable;
+            //至少执行一个回调，避免单个回调超过预算时一直无法前进。
+            while ((runnable = pending.poll()) != null) {
+                runnable.run();
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            scheduleIfNeeded();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void initChoreographer() {
+        frameCallback = new Choreographer.FrameCallback() {
+
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                dispatchPending();
+            }
+        };
+        choreographer = Choreographer.getInstance();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        //postFrameCallback 可以在任意线程调用。
+        ((Choreographer) choreographer).postFrameCallback((Choreographer.FrameCallback) frameCallback);
+    }
+}
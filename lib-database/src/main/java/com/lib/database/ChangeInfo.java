@@ -0,0 +1,67 @@
+package com.lib.database;
+
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+/**
+ * 解析 SQLiteContentProvider 发出的变化通知 Uri，得到变化的表、操作类型和行 id，
+ * 观察者可以据此只刷新变化的行。在 API 16 以上的 {@code ContentObserver.onChange(boolean, Uri)} 中使用。
+ */
+public class ChangeInfo {
+
+    public static final int OPERATION_INSERT = 1;
+    public static final int OPERATION_UPDATE = 1 << 1;
+    public static final int OPERATION_DELETE = 1 << 2;
+
+    private final String tableName;
+    private final int operations;
+    private final long[] rowIds;
+
+    ChangeInfo(String tableName, int operations, long[] rowIds) {
+        this.tableName = tableName;
+        this.operations = operations;
+        this.rowIds = rowIds;
+    }
+
+    public static ChangeInfo parse(Uri uri) {
+        String tableName = uri.getQueryParameter(Constant.TABLE_NAME);
+        int operations = 0;
+        String operationsParam = uri.getQueryParameter(Constant.CHANGE_OPERATIONS);
+        if (!TextUtils.isEmpty(operationsParam)) {
+            operations = Integer.parseInt(operationsParam);
+        }
+        long[] rowIds = null;
+        String idsParam = uri.getQueryParameter(Constant.CHANGED_IDS);
+        if (idsParam != null) {
+            String[] ids = TextUtils.isEmpty(idsParam) ? new String[0] : idsParam.split(",");
+            rowIds = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                rowIds[i] = Long.parseLong(ids[i]);
+            }
+        }
+        return new ChangeInfo(tableName, operations, rowIds);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return 发生过的操作，OPERATION_* 的组合，为 0 表示未知。
+     */
+    public int getOperations() {
+        return operations;
+    }
+
+    public boolean hasOperation(int operation) {
+        return operations == 0 || (operations & operation) != 0;
+    }
+
+    /**
+     * @return 变化的行 id，为 null 表示无法确定具体的行，需要刷新整张表。
+     */
+    public long[] getRowIds() {
+        return rowIds;
+    }
+}
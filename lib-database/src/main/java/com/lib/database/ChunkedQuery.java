@@ -0,0 +1,239 @@
+package com.lib.database;
+
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.support.v4.os.CancellationSignal;
+
+import com.lib.database.callback.IChunkCallback;
+import com.lib.database.callback.IConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * 按 keyset 分页分批读取查询结果：每一批查询都从上一批最后一行的 key 之后开始，
+ * 不使用 OFFSET，因此越往后读也不会变慢，单次查询的结果也不会超过 chunkSize 行。
+ */
+class ChunkedQuery {
+
+    private final DbWorker worker;
+    private final DbRequest request;
+    private final String[] keyColumns;
+    private final boolean descending;
+    private final int chunkSize;
+    private final long maxCount;
+
+    ChunkedQuery(DbWorker worker, DbRequest request, String keyColumn, boolean descending, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive, chunkSize=" + chunkSize);
+        }
+        if (request.isRawQuery() || request.getGroupBy() != null || request.getHaving() != null) {
+            throw new IllegalArgumentException("chunked query does not support rawQuery, groupBy or having");
+        }
+        this.worker = worker;
+        this.request = request;
+        if (keyColumn == null || BaseColumns._ID.equals(keyColumn)) {
+            this.keyColumns = new String[]{BaseColumns._ID};
+        } else {
+            //keyColumn 可能重复，再用 _id 保证分页位置唯一。
+            this.keyColumns = new String[]{keyColumn, BaseColumns._ID};
+        }
+        this.descending = descending;
+        this.chunkSize = chunkSize;
+        this.maxCount = parseMaxCount(request.getLimit());
+    }
+
+    /**
+     * limit 接受与 SQLite 相同的三种写法；keyset 分页无法跳过行，带 offset 时抛出 IllegalArgumentException。
+     */
+    private static long parseMaxCount(String limit) {
+        long[] offsetAndCount;
+        try {
+            offsetAndCount = ShardMerger.parseLimit(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid limit for chunked query, limit=" + limit, e);
+        }
+        if (offsetAndCount[0] > 0) {
+            throw new IllegalArgumentException("chunked query does not support offset, limit=" + limit);
+        }
+        return offsetAndCount[1] < 0 ? Long.MAX_VALUE : offsetAndCount[1];
+    }
+
+    /**
+     * @param callbackExecutor 执行回调的 Executor，为 null 时在当前线程回调。
+     * @param cancellationSignal 被取消后不再读取下一批，也不再回调，可以为 null。
+     */
+    int run(IChunkCallback callback, Executor callbackExecutor, CancellationSignal cancellationSignal) {
+        Uri uri = worker.getTableUri(request.getTableName());
+        String[] projection = buildProjection();
+        String sortOrder = buildSortOrder();
+        IConverter converter = request.getIConverter();
+        Object[] lastKeys = null;
+        int totalCount = 0;
+        while (totalCount < maxCount && !Thread.currentThread().isInterrupted() && !isCanceled(cancellationSignal)) {
+            List<String> args = new ArrayList<>();
+            String selection = buildSelection(lastKeys, args);
+            int pageSize = (int) Math.min(chunkSize, maxCount - totalCount);
+            Uri pageUri = uri.buildUpon().appendQueryParameter(Constant.LIMIT, String.valueOf(pageSize)).build();
+            Cursor cursor = worker.query(pageUri, projection, selection, args.toArray(new String[args.size()]), sortOrder, cancellationSignal);
+            if (cursor == null) {
+                break;
+            }
+            int count = cursor.getCount();
+            if (count == 0) {
+                cursor.close();
+                break;
+            }
+            cursor.moveToLast();
+            try {
+                lastKeys = readKeys(cursor);
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+            cursor.moveToPosition(-1);
+            Object chunk = worker.convert(converter, cursor, cancellationSignal);
+            if (!(converter instanceof CursorConverter) && !cursor.isClosed()) {
+                cursor.close();
+            }
+            totalCount += count;
+            if (!deliverChunk(callback, chunk, callbackExecutor, cancellationSignal) || count < pageSize) {
+                break;
+            }
+        }
+        if (!isCanceled(cancellationSignal)) {
+            deliverComplete(callback, totalCount, callbackExecutor);
+        }
+        return totalCount;
+    }
+
+    private static boolean isCanceled(CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
+
+    private String[] buildProjection() {
+        String[] projection = request.getProjectionArray();
+        if (projection == null || projection.length == 0) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>(Arrays.asList(projection));
+        for (String keyColumn : keyColumns) {
+            if (!columns.contains(keyColumn)) {
+                columns.add(keyColumn);
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    private String buildSortOrder() {
+        String direction = descending ? " DESC" : " ASC";
+        StringBuilder sortOrder = new StringBuilder();
+        for (int i = 0; i < keyColumns.length; i++) {
+            sortOrder.append(i > 0 ? ", " : "").append(keyColumns[i]).append(direction);
+        }
+        return sortOrder.toString();
+    }
+
+    private String buildSelection(Object[] lastKeys, List<String> args) {
+        String baseSelection = request.getSelection();
+        if (baseSelection != null && request.getSelectionArgsArray() != null) {
+            Collections.addAll(args, request.getSelectionArgsArray());
+        }
+        if (lastKeys == null) {
+            return baseSelection;
+        }
+        String compare = descending ? " < " : " > ";
+        String keySelection;
+        if (keyColumns.length == 1) {
+            keySelection = keyColumns[0] + compare + keyValue(lastKeys[0], args);
+        } else {
+            keySelection = "(" + keyColumns[0] + compare + keyValue(lastKeys[0], args)
+                    + " OR (" + keyColumns[0] + " = " + keyValue(lastKeys[0], args)
+                    + " AND " + keyColumns[1] + compare + keyValue(lastKeys[1], args) + "))";
+        }
+        return baseSelection != null ? "(" + baseSelection + ") AND " + keySelection : keySelection;
+    }
+
+    /**
+     * selectionArgs 只能按字符串绑定，数值 key 直接写成字面量，保留原来的类型和精度；字符串 key 仍然绑定参数。
+     */
+    private static String keyValue(Object value, List<String> args) {
+        if (value instanceof Long) {
+            return value.toString();
+        }
+        if (value instanceof Double) {
+            double d = (Double) value;
+            if (Double.isInfinite(d)) {
+                //SQLite 把超出范围的字面量解析为 Inf。
+                return d > 0 ? "9e999" : "-9e999";
+            }
+            return Double.toString(d);
+        }
+        args.add((String) value);
+        return "?";
+    }
+
+    /**
+     * 按列的实际类型读取 key；BLOB 和 NULL 无法作为分页位置，抛出 IllegalStateException。
+     */
+    private Object[] readKeys(Cursor cursor) {
+        Object[] keys = new Object[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+            Object value = ShardMerger.readValue(cursor, cursor.getColumnIndexOrThrow(keyColumns[i]));
+            if (value == null || value instanceof byte[]) {
+                throw new IllegalStateException("chunked query key must be INTEGER, REAL or TEXT, keyColumn="
+                        + keyColumns[i] + ", value=" + (value == null ? "NULL" : "BLOB"));
+            }
+            keys[i] = value;
+        }
+        return keys;
+    }
+
+    private boolean deliverChunk(final IChunkCallback callback, final Object chunk, Executor callbackExecutor,
+                                 final CancellationSignal cancellationSignal) {
+        if (callbackExecutor == null) {
+            return callback.onChunk(chunk);
+        }
+        //在其他线程回调时等待回调返回，消费者处理不过来时不会继续读取。
+        final boolean[] result = new boolean[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        callbackExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    result[0] = !isCanceled(cancellationSignal) && callback.onChunk(chunk);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return result[0];
+    }
+
+    private void deliverComplete(final IChunkCallback callback, final int totalCount, Executor callbackExecutor) {
+        if (callbackExecutor == null) {
+            callback.onChunkedQueryComplete(totalCount);
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                callback.onChunkedQueryComplete(totalCount);
+            }
+        });
+    }
+}
@@ -7,4 +7,16 @@ public class Constant {
     public static final String RAW_QUERY = "rawQuery";
     public static final String HAVING = "having";
     public static final String TABLE_NAME = "tableName";
+    public static final String CHANGE_OPERATIONS = "changeOps";
+    public static final String CHANGED_IDS = "changedIds";
+    public static final String BLOB = "blob";
+    public static final String METHOD_TOUCH = "touchRows";
+    public static final String EXTRA_ROW_IDS = "rowIds";
+    public static final String EXTRA_ACCESS_TIME = "accessTime";
+    public static final String METHOD_APPLY_BATCH = "applyBatch";
+    public static final String EXTRA_OPERATIONS = "operations";
+    public static final String EXTRA_ATOMICITY = "atomicity";
+    public static final String EXTRA_RESULTS = "results";
+    public static final String EXTRA_ERROR = "error";
+    public static final String EXTRA_SUCCESSFUL_YIELD_POINTS = "successfulYieldPoints";
 }
@@ -0,0 +1,179 @@
+package com.lib.database;
+
+
+import com.lib.database.annotation.Durability;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SQLiteContentProvider 打开数据库时使用的配置，通过覆盖 {@link SQLiteContentProvider#getDbConfig()} 提供。
+ */
+public class DbConfig {
+
+    static final long DEFAULT_BATCH_TRANSACTION_MILLIS = 100;
+
+    private boolean writeAheadLogging;
+    private @Durability int durability;
+    private long notifyDelayMillis;
+    private boolean trackChangedRowIds;
+    private int blobOffloadThreshold;
+    private List<BoundedTable> boundedTables;
+    private long slowQueryThresholdMillis;
+    private Set<String> approvedIndexes;
+    private long batchTransactionMillis;
+
+    public DbConfig(Builder builder) {
+        this.writeAheadLogging = builder.writeAheadLogging;
+        this.durability = builder.durability;
+        this.notifyDelayMillis = builder.notifyDelayMillis;
+        this.trackChangedRowIds = builder.trackChangedRowIds;
+        this.blobOffloadThreshold = builder.blobOffloadThreshold;
+        this.boundedTables = builder.boundedTables != null
+                ? Collections.unmodifiableList(builder.boundedTables) : Collections.<BoundedTable>emptyList();
+        this.slowQueryThresholdMillis = builder.slowQueryThresholdMillis;
+        this.approvedIndexes = builder.approvedIndexes != null
+                ? Collections.unmodifiableSet(builder.approvedIndexes) : Collections.<String>emptySet();
+        this.batchTransactionMillis = builder.batchTransactionMillis;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    public int getDurability() {
+        return durability;
+    }
+
+    public long getNotifyDelayMillis() {
+        return notifyDelayMillis;
+    }
+
+    public boolean isTrackChangedRowIds() {
+        return trackChangedRowIds;
+    }
+
+    public int getBlobOffloadThreshold() {
+        return blobOffloadThreshold;
+    }
+
+    public List<BoundedTable> getBoundedTables() {
+        return boundedTables;
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    Set<String> getApprovedIndexes() {
+        return approvedIndexes;
+    }
+
+    public long getBatchTransactionMillis() {
+        return batchTransactionMillis;
+    }
+
+    public static class Builder {
+
+        private boolean writeAheadLogging;
+        private @Durability int durability = Durability.DEFAULT;
+        private long notifyDelayMillis;
+        private boolean trackChangedRowIds;
+        private int blobOffloadThreshold;
+        private List<BoundedTable> boundedTables;
+        private long slowQueryThresholdMillis;
+        private Set<String> approvedIndexes;
+        private long batchTransactionMillis = DEFAULT_BATCH_TRANSACTION_MILLIS;
+
+        /**
+         * 开启 WAL 后读操作使用单独的连接，不会被正在进行的写事务阻塞。
+         */
+        public Builder writeAheadLogging(boolean writeAheadLogging) {
+            this.writeAheadLogging = writeAheadLogging;
+            return this;
+        }
+
+        /**
+         * 通过 PRAGMA synchronous 设置，只作用于执行写操作的主连接；设置失败时记录日志并使用默认值。
+         * {@link Durability#NORMAL} 需要同时开启 {@link #writeAheadLogging}，否则不生效。
+         */
+        public Builder durability(@Durability int durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * 同一张表在该时间内的所有变化合并为一次通知，每次提交都会重新计时，但最多推迟 4 倍的时间；
+         * 为 0 时每个事务提交后立即通知。回滚的事务中的变化不会通知。
+         */
+        public Builder notifyDelayMillis(long notifyDelayMillis) {
+            this.notifyDelayMillis = notifyDelayMillis;
+            return this;
+        }
+
+        /**
+         * UPDATE 和 DELETE 前先查询受影响的行 id，放到变化通知中，会多一次查询。
+         */
+        public Builder trackChangedRowIds(boolean trackChangedRowIds) {
+            this.trackChangedRowIds = trackChangedRowIds;
+            return this;
+        }
+
+        /**
+         * 不小于该字节数的 byte[] 写到数据库旁边的文件中，行中只保存引用，为 0 时不转存。
+         * 读取引用见 {@link DbExecutor#openBlob} 和 {@link DbExecutor#mapBlob}。
+         */
+        public Builder blobOffloadThreshold(int blobOffloadThreshold) {
+            this.blobOffloadThreshold = blobOffloadThreshold;
+            return this;
+        }
+
+        /**
+         * 为表设置容量上限，超过后按访问时间淘汰，需要 Provider 继承自 {@link SimpleSQLiteProvider}。
+         */
+        public Builder boundedTable(BoundedTable boundedTable) {
+            if (boundedTables == null) {
+                boundedTables = new ArrayList<>();
+            }
+            boundedTables.add(boundedTable);
+            return this;
+        }
+
+        /**
+         * 超过该时间的查询记录到慢查询日志中，为 0 时不记录。开启后 Provider 返回 Cursor 前会先执行查询，
+         * 见 {@link SQLiteContentProvider#getSlowQueries()}。
+         */
+        public Builder slowQueryThresholdMillis(long slowQueryThresholdMillis) {
+            this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+            return this;
+        }
+
+        /**
+         * 允许慢查询日志自动创建的索引，只有建议的索引与之完全相同（列的顺序也相同）时才会创建。
+         */
+        public Builder approvedIndex(String tableName, String... columns) {
+            if (approvedIndexes == null) {
+                approvedIndexes = new HashSet<>();
+            }
+            approvedIndexes.add(SlowQueryLog.indexKey(tableName, Arrays.asList(columns)));
+            return this;
+        }
+
+        /**
+         * 自动分块的 applyBatch 每个事务的目标耗时，分块大小根据前面分块的实际耗时调整，
+         * 见 {@link com.lib.database.annotation.BatchAtomicity#PER_CHUNK}。操作数少于 2000 的批量操作不分块，不受该设置影响。
+         */
+        public Builder batchTransactionMillis(long batchTransactionMillis) {
+            this.batchTransactionMillis = batchTransactionMillis;
+            return this;
+        }
+
+        public DbConfig build() {
+            return new DbConfig(this);
+        }
+    }
+}
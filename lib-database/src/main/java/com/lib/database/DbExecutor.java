@@ -9,30 +9,69 @@ import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.support.v4.os.CancellationSignal;
 
+import com.lib.database.annotation.BatchAtomicity;
 import com.lib.database.callback.IApplyBatchCallback;
+import com.lib.database.callback.IBulkInsertCallback;
+import com.lib.database.callback.IChunkCallback;
 import com.lib.database.callback.IConverter;
 import com.lib.database.callback.IDeleteCallback;
 import com.lib.database.callback.IInsertCallback;
 import com.lib.database.callback.IQueryCallback;
 import com.lib.database.callback.IUpdateCallback;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class DbExecutor {
 
+    /**
+     * 每个数据库默认的写线程数，SQLite 同一时刻只允许一个写者，因此默认串行执行。
+     */
+    public static final int DEFAULT_WRITE_THREAD_COUNT = 1;
+
+    /**
+     * 每个数据库默认的读线程数。
+     */
+    public static final int DEFAULT_READ_THREAD_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private ConcurrentHashMap<Uri, DbWorker> workers = new ConcurrentHashMap<>();
-    private ExecutorService executorService = Executors.newCachedThreadPool();
     private Context context;
     private Handler mainHandler;
+    private CallbackDispatcher callbackDispatcher;
+    private int writeThreadCount;
+    private int readThreadCount;
+    private volatile boolean metricsEnabled = true;
+    private ExecutorService executorService;
 
     public DbExecutor(Context context) {
+        this(context, DEFAULT_WRITE_THREAD_COUNT, DEFAULT_READ_THREAD_COUNT);
+    }
+
+    /**
+     * @param context 上下文。
+     * @param writeThreadCount 每个数据库处理 INSERT/UPDATE/DELETE/APPLY_BATCH 的线程数。
+     * @param readThreadCount 每个数据库处理 QUERY 的线程数。
+     */
+    public DbExecutor(Context context, int writeThreadCount, int readThreadCount) {
+        if (writeThreadCount <= 0 || readThreadCount <= 0) {
+            throw new IllegalArgumentException("thread count must be positive, write=" + writeThreadCount + ", read=" + readThreadCount);
+        }
         this.context = context;
+        this.writeThreadCount = writeThreadCount;
+        this.readThreadCount = readThreadCount;
         mainHandler = new Handler(Looper.getMainLooper());
+        callbackDispatcher = new CallbackDispatcher(mainHandler);
     }
 
     /**
@@ -45,6 +84,13 @@ public class DbExecutor {
         return getWorker(dbUri).doSync(request);
     }
 
+    /**
+     * 可以取消的同步任务，见 {@link DbWorker#doSync(DbRequest, CancellationSignal)}。
+     */
+    public DbResponse doSync(Uri dbUri, DbRequest request, CancellationSignal cancellationSignal) {
+        return getWorker(dbUri).doSync(request, cancellationSignal);
+    }
+
     /**
      * 同步任务。
      * @param dbUri ContentProvider 的 Uri。
@@ -67,6 +113,21 @@ public class DbExecutor {
         return getWorker(dbUri).doAsyncQuery(tableName, projectionIn, selection, selectionArgs, groupBy, having, sortOrder, limit, converter, callback, dealOnUiThread);
     }
 
+    /**
+     * 编译可以重复执行的查询，见 {@link DbWorker#prepareQuery}。
+     */
+    public <T> PreparedQuery<T> prepareQuery(Uri dbUri, DbRequest template) {
+        return getWorker(dbUri).prepareQuery(template);
+    }
+
+    public int doSyncChunkedQuery(Uri dbUri, DbRequest request, String keyColumn, boolean descending, int chunkSize, IChunkCallback callback) {
+        return getWorker(dbUri).doSyncChunkedQuery(request, keyColumn, descending, chunkSize, callback);
+    }
+
+    public Future doAsyncChunkedQuery(Uri dbUri, DbRequest request, String keyColumn, boolean descending, int chunkSize, IChunkCallback callback) {
+        return getWorker(dbUri).doAsyncChunkedQuery(request, keyColumn, descending, chunkSize, callback);
+    }
+
     public long doSyncInsert(Uri dbUri, String tableName, ContentValues values) {
         return getWorker(dbUri).doSyncInsert(tableName, values);
     }
@@ -75,6 +136,22 @@ public class DbExecutor {
         return getWorker(dbUri).doAsyncInsert(tableName, values, callback, dealOnUiThread);
     }
 
+    public int doSyncBulkInsert(Uri dbUri, String tableName, List<ContentValues> values) {
+        return getWorker(dbUri).doSyncBulkInsert(tableName, values);
+    }
+
+    public int doSyncBulkInsert(Uri dbUri, String tableName, String[] columns, List<Object[]> rows) {
+        return getWorker(dbUri).doSyncBulkInsert(tableName, columns, rows);
+    }
+
+    public Future doAsyncBulkInsert(Uri dbUri, String tableName, List<ContentValues> values, IBulkInsertCallback callback, boolean dealOnUiThread) {
+        return getWorker(dbUri).doAsyncBulkInsert(tableName, values, callback, dealOnUiThread);
+    }
+
+    public Future doAsyncBulkInsert(Uri dbUri, String tableName, String[] columns, List<Object[]> rows, IBulkInsertCallback callback, boolean dealOnUiThread) {
+        return getWorker(dbUri).doAsyncBulkInsert(tableName, columns, rows, callback, dealOnUiThread);
+    }
+
     public int doSyncDelete(Uri dbUri, String tableName, String whereClause, String[] whereArgs) {
         return getWorker(dbUri).doSyncDelete(tableName, whereClause, whereArgs);
     }
@@ -99,6 +176,22 @@ public class DbExecutor {
         return getWorker(dbUri).doSyncApplyBatch(operations);
     }
 
+    /**
+     * @param atomicity 默认为 {@link BatchAtomicity#PER_CHUNK}，超过 yield 点上限的批量操作自动分块提交，
+     *                  失败时已经提交的分块不会回滚；{@link BatchAtomicity#WHOLE_BATCH} 在一个事务中执行全部操作。
+     */
+    public Future doAsyncApplyBatch(Uri dbUri, ArrayList<ContentProviderOperation> operations, @BatchAtomicity int atomicity,
+                                    IApplyBatchCallback callback) {
+        return getWorker(dbUri).doAsyncApplyBatch(operations, atomicity, callback);
+    }
+
+    /**
+     * @see #doAsyncApplyBatch(Uri, ArrayList, int, IApplyBatchCallback)
+     */
+    public ContentProviderResult[] doSyncApplyBatch(Uri dbUri, ArrayList<ContentProviderOperation> operations, @BatchAtomicity int atomicity) {
+        return getWorker(dbUri).doSyncApplyBatch(operations, atomicity);
+    }
+
     /**
      * 根据表名返回在 ContentProvider 的 Uri。
      * @param dbUri ContentProvider 的 Uri。
@@ -109,6 +202,27 @@ public class DbExecutor {
         return getWorker(dbUri).getTableUri(tableName);
     }
 
+    /**
+     * 批量记录有容量上限的表中的行被访问过，见 {@link DbWorker#touch}。
+     */
+    public void touch(Uri dbUri, String tableName, long... rowIds) {
+        getWorker(dbUri).touch(tableName, rowIds);
+    }
+
+    /**
+     * 打开转存到文件的 BLOB，见 {@link DbWorker#openBlob}。
+     */
+    public ParcelFileDescriptor openBlob(Uri dbUri, String reference) throws FileNotFoundException {
+        return getWorker(dbUri).openBlob(reference);
+    }
+
+    /**
+     * 把转存到文件的 BLOB 映射到内存，见 {@link DbWorker#mapBlob}。
+     */
+    public MappedByteBuffer mapBlob(Uri dbUri, String reference) throws IOException {
+        return getWorker(dbUri).mapBlob(reference);
+    }
+
     /**
      * 根据数据库的 Uri 和指向表的 Uri 返回表名。
      * @param dbUri 指向数据库的 Uri。
@@ -119,6 +233,13 @@ public class DbExecutor {
         return getWorker(dbUri).parseTableName(tableUri);
     }
 
+    /**
+     * 创建实时查询，见 {@link DbWorker#liveQuery}。
+     */
+    public <T> LiveQuery<T> liveQuery(Uri dbUri, DbRequest request, long throttleMillis, IQueryCallback<T> callback) {
+        return getWorker(dbUri).liveQuery(request, throttleMillis, callback);
+    }
+
     public void registerContentObserver(Uri dbUri, String tableName, boolean notifyForDescendants, ContentObserver observer) {
         getWorker(dbUri).registerContentObserver(tableName, notifyForDescendants, observer);
     }
@@ -127,20 +248,141 @@ public class DbExecutor {
         getWorker(dbUri).unregisterContentObserver(observer);
     }
 
-    private DbWorker getWorker(Uri dbUri) {
+    /**
+     * 开启指定数据库的查询结果缓存，见 {@link DbWorker#enableQueryCache}。
+     */
+    public void enableQueryCache(Uri dbUri, int maxWeight, QueryCache.Weigher weigher) {
+        getWorker(dbUri).enableQueryCache(maxWeight, weigher);
+    }
+
+    public void disableQueryCache(Uri dbUri) {
+        getWorker(dbUri).disableQueryCache();
+    }
+
+    public QueryCache getQueryCache(Uri dbUri) {
+        return getWorker(dbUri).getQueryCache();
+    }
+
+    /**
+     * 开启指定数据库的写合并。
+     * @param dbUri ContentProvider 的 Uri。
+     * @param maxBatchSize 单个事务最多合并的请求数。
+     * @param windowMillis 收集请求的最长等待时间，为 0 时只合并已经在排队的请求。
+     */
+    public void enableWriteCoalescing(Uri dbUri, int maxBatchSize, long windowMillis) {
+        getWorker(dbUri).enableWriteCoalescing(maxBatchSize, windowMillis);
+    }
+
+    public void disableWriteCoalescing(Uri dbUri) {
+        getWorker(dbUri).disableWriteCoalescing();
+    }
+
+    /**
+     * 开启或关闭耗时统计，默认开启。
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * 返回所有数据库的耗时统计，每一项对应一个数据库中一张表、一种请求在一个阶段（{@link com.lib.database.annotation.LatencyStage}）的
+     * 次数、平均值、p50/p95/p99 和最大值，可以据此判断慢在 SQLite、转换还是主线程排队。
+     */
+    public List<LatencyStats> getMetricsSnapshot() {
+        List<LatencyStats> snapshot = new ArrayList<>();
+        for (DbWorker worker : workers.values()) {
+            snapshot.addAll(worker.getMetricsSnapshot());
+        }
+        return snapshot;
+    }
+
+    public List<LatencyStats> getMetricsSnapshot(Uri dbUri) {
+        return getWorker(dbUri).getMetricsSnapshot();
+    }
+
+    /**
+     * @return 指定数据库中因为与同时在执行的相同查询合并而省去的查询次数。
+     */
+    public long getDeduplicatedQueryCount(Uri dbUri) {
+        return getWorker(dbUri).getDeduplicatedQueryCount();
+    }
+
+    public void resetMetrics() {
+        for (DbWorker worker : workers.values()) {
+            worker.resetMetrics();
+        }
+    }
+
+    /**
+     * 关闭所有数据库的读写线程，已提交的任务会继续执行完。
+     */
+    public void shutdown() {
+        for (DbWorker worker : workers.values()) {
+            worker.shutdown();
+        }
+        workers.clear();
+        synchronized (this) {
+            if (executorService != null) {
+                executorService.shutdown();
+                executorService = null;
+            }
+        }
+    }
+
+    DbWorker getWorker(Uri dbUri) {
         DbWorker worker = workers.get(dbUri);
         if (worker == null) {
-            worker = new DbWorker(context, dbUri, this);
-            workers.put(dbUri, worker);
+            DbWorker newWorker = new DbWorker(context, dbUri, this);
+            worker = workers.putIfAbsent(dbUri, newWorker);
+            if (worker == null) {
+                worker = newWorker;
+            } else {
+                newWorker.shutdown();
+            }
         }
         return worker;
     }
 
-    public ExecutorService getExecutorService() {
+    /**
+     * 请求已经改由每个数据库自己的读写线程执行，不再使用这个线程池。为了兼容保留，第一次调用时创建，
+     * 只用于调用方自己的任务，{@link #shutdown()} 时一起关闭。
+     * @deprecated 使用自己的线程池。
+     */
+    @Deprecated
+    public synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newCachedThreadPool();
+        }
         return executorService;
     }
 
+    public int getWriteThreadCount() {
+        return writeThreadCount;
+    }
+
+    public int getReadThreadCount() {
+        return readThreadCount;
+    }
+
     public Handler getMainHandler() {
         return mainHandler;
     }
+
+    /**
+     * 设置在主线程集中执行回调时每一帧最多占用的时间，默认 4ms，超出的回调留到下一帧执行。
+     */
+    public void setCallbackBudgetMillis(long budgetMillis) {
+        callbackDispatcher.setBudgetMillis(budgetMillis);
+    }
+
+    /**
+     * dealOnUiThread 的请求通过它在主线程回调。
+     */
+    Executor getCallbackDispatcher() {
+        return callbackDispatcher;
+    }
 }
@@ -0,0 +1,78 @@
+package com.lib.database;
+
+
+import android.net.Uri;
+
+import com.lib.database.annotation.LatencyStage;
+import com.lib.database.annotation.RequestType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 单个数据库的请求耗时统计，按表、请求类型和阶段分别记录，记录时不加锁。
+ */
+class DbMetrics {
+
+    private static final int STAGE_COUNT = LatencyStage.DELIVER + 1;
+    private static final int REQUEST_TYPE_COUNT = RequestType.BULK_INSERT + 1;
+
+    private final Uri dbUri;
+
+    /**
+     * 表名到直方图的映射，下标为 requestType * STAGE_COUNT + stage，用到时才创建。
+     */
+    private final ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>> tables = new ConcurrentHashMap<>();
+
+    DbMetrics(Uri dbUri) {
+        this.dbUri = dbUri;
+    }
+
+    /**
+     * @param tableName 表名，APPLY_BATCH 等不针对单张表的请求传 null。
+     * @param durationNanos 该阶段的耗时，单位纳秒。
+     */
+    void record(String tableName, @RequestType int requestType, @LatencyStage int stage, long durationNanos) {
+        if (requestType < 0 || requestType >= REQUEST_TYPE_COUNT) {
+            return;
+        }
+        String key = tableName != null ? tableName : "";
+        AtomicReferenceArray<LatencyHistogram> histograms = tables.get(key);
+        if (histograms == null) {
+            AtomicReferenceArray<LatencyHistogram> newHistograms = new AtomicReferenceArray<>(REQUEST_TYPE_COUNT * STAGE_COUNT);
+            histograms = tables.putIfAbsent(key, newHistograms);
+            if (histograms == null) {
+                histograms = newHistograms;
+            }
+        }
+        int index = requestType * STAGE_COUNT + stage;
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+        histogram.record(durationNanos / 1000);
+    }
+
+    List<LatencyStats> snapshot() {
+        List<LatencyStats> stats = new ArrayList<>();
+        for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : tables.entrySet()) {
+            String tableName = entry.getKey().isEmpty() ? null : entry.getKey();
+            AtomicReferenceArray<LatencyHistogram> histograms = entry.getValue();
+            for (int i = 0; i < histograms.length(); i++) {
+                LatencyHistogram histogram = histograms.get(i);
+                if (histogram != null && histogram.count() > 0) {
+                    stats.add(new LatencyStats(dbUri, tableName, i / STAGE_COUNT, i % STAGE_COUNT, histogram));
+                }
+            }
+        }
+        return stats;
+    }
+
+    void reset() {
+        tables.clear();
+    }
+}
@@ -4,39 +4,71 @@ package com.lib.database;
 import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 
+import com.lib.database.annotation.BatchAtomicity;
+import com.lib.database.annotation.Priority;
 import com.lib.database.annotation.RequestType;
 import com.lib.database.callback.IBaseCallback;
 import com.lib.database.callback.IConverter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class DbRequest {
 
+    /**
+     * 没有指定转换器时使用，CursorConverter 没有状态，所有请求共用一个实例。
+     */
+    static final CursorConverter DEFAULT_CONVERTER = new CursorConverter();
+
+    private static final int MAX_POOL_SIZE = 8;
+    private static final Object POOL_LOCK = new Object();
+    private static DbRequest pool;
+    private static int poolSize;
+
     private String tableName;
     private @RequestType
     int requestType;
     private String selection;
-    private List<String> selectionArgs = new ArrayList<>();
-    private List<String> projection = new ArrayList<>();
+    private String[] selectionArgs;
+    private String[] projection;
+    /**
+     * 调用 {@link #getSelectionArgs()}、{@link #getProjection()} 后才创建，之后以列表为准，调用方可以继续修改。
+     */
+    private List<String> selectionArgsList;
+    private List<String> projectionList;
     private String groupBy;
     private String limit;
     private String sortOrder;
     private String having;
-    private ContentValues values = new ContentValues();
+    private ContentValues values;
     private IBaseCallback callback;
     private com.lib.database.callback.IConverter IConverter;
     private boolean rawQuery;
     private boolean dealOnUiThread;
-    private ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+    private ArrayList<ContentProviderOperation> operations;
+    private @BatchAtomicity
+    int batchAtomicity;
+    private ContentValues[] bulkValues;
+    private @Priority
+    int priority = Priority.NORMAL;
+    private Executor callbackExecutor;
+    private PreparedQuery preparedQuery;
+    private DbRequest next;
+
+    private DbRequest() {
+    }
 
     public DbRequest(Builder builder) {
         this.tableName = builder.tableName;
         this.requestType = builder.requestType;
         this.selection = builder.selection;
-        this.selectionArgs = builder.selectionArgs;
-        this.projection = builder.projection;
+        this.selectionArgs = builder.selectionArgs != null
+                ? builder.selectionArgs.toArray(new String[builder.selectionArgs.size()]) : builder.selectionArgsArray;
+        this.projection = builder.projection != null
+                ? builder.projection.toArray(new String[builder.projection.size()]) : builder.projectionArray;
         this.groupBy = builder.groupBy;
         this.limit = builder.limit;
         this.sortOrder = builder.sortOrder;
@@ -47,6 +79,110 @@ public class DbRequest {
         this.rawQuery = builder.rawQuery;
         this.dealOnUiThread = builder.dealOnUiThread;
         this.operations = builder.operations;
+        this.batchAtomicity = builder.batchAtomicity;
+        this.bulkValues = builder.bulkValues;
+        this.priority = builder.priority;
+        this.callbackExecutor = builder.callbackExecutor;
+    }
+
+    /**
+     * 从对象池中取出一个查询请求，只用于 DbWorker 内部构造、执行完立即 {@link #recycle()} 的同步请求。
+     * 数组直接引用，不会复制。
+     */
+    static DbRequest obtainQuery(String tableName, String[] projection, String selection, String[] selectionArgs,
+                                 String groupBy, String having, String sortOrder, String limit, IConverter converter) {
+        DbRequest request = obtain(RequestType.QUERY, tableName);
+        request.projection = projection;
+        request.selection = selection;
+        request.selectionArgs = selectionArgs;
+        request.groupBy = groupBy;
+        request.having = having;
+        request.sortOrder = sortOrder;
+        request.limit = limit;
+        request.IConverter = converter != null ? converter : DEFAULT_CONVERTER;
+        return request;
+    }
+
+    /**
+     * 从对象池中取出一个 INSERT、UPDATE 或 DELETE 请求，values 直接引用，不会复制。
+     */
+    static DbRequest obtainWrite(@RequestType int requestType, String tableName, ContentValues values,
+                                 String selection, String[] selectionArgs) {
+        DbRequest request = obtain(requestType, tableName);
+        request.values = values;
+        request.selection = selection;
+        request.selectionArgs = selectionArgs;
+        request.IConverter = DEFAULT_CONVERTER;
+        return request;
+    }
+
+    /**
+     * 从对象池中取出一个请求，复制模板的所有参数，再换上这次的参数和回调，由 preparedQuery 提供 Uri 和 SQL。
+     * 同步执行时用完立即 {@link #recycle()}，异步执行的请求不回收。
+     */
+    static DbRequest obtainPrepared(DbRequest template, PreparedQuery preparedQuery, String[] selectionArgs, IBaseCallback callback) {
+        DbRequest request = obtainQuery(template.tableName, template.getProjectionArray(), template.selection, selectionArgs,
+                template.groupBy, template.having, template.sortOrder, template.limit, template.IConverter);
+        request.rawQuery = template.rawQuery;
+        request.dealOnUiThread = template.dealOnUiThread;
+        request.priority = template.priority;
+        request.callbackExecutor = template.callbackExecutor;
+        request.callback = callback;
+        request.preparedQuery = preparedQuery;
+        return request;
+    }
+
+    private static DbRequest obtain(@RequestType int requestType, String tableName) {
+        DbRequest request = null;
+        synchronized (POOL_LOCK) {
+            if (pool != null) {
+                request = pool;
+                pool = request.next;
+                request.next = null;
+                poolSize--;
+            }
+        }
+        if (request == null) {
+            request = new DbRequest();
+        }
+        request.requestType = requestType;
+        request.tableName = tableName;
+        return request;
+    }
+
+    /**
+     * 清空所有字段后放回对象池，调用后不能再使用该对象。只能回收 obtain 得到的请求。
+     */
+    void recycle() {
+        tableName = null;
+        requestType = 0;
+        selection = null;
+        selectionArgs = null;
+        projection = null;
+        selectionArgsList = null;
+        projectionList = null;
+        groupBy = null;
+        limit = null;
+        sortOrder = null;
+        having = null;
+        values = null;
+        callback = null;
+        IConverter = null;
+        rawQuery = false;
+        dealOnUiThread = false;
+        operations = null;
+        batchAtomicity = BatchAtomicity.PER_CHUNK;
+        bulkValues = null;
+        priority = Priority.NORMAL;
+        callbackExecutor = null;
+        preparedQuery = null;
+        synchronized (POOL_LOCK) {
+            if (poolSize < MAX_POOL_SIZE) {
+                next = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
     }
 
     public String getTableName() {
@@ -61,12 +197,55 @@ public class DbRequest {
         return selection;
     }
 
+    /**
+     * @return 可以修改的列表，修改会作用于这个请求，没有参数时为空列表。第一次调用时复制内部数组。
+     */
     public List<String> getSelectionArgs() {
-        return selectionArgs;
+        if (selectionArgsList == null) {
+            selectionArgsList = toList(selectionArgs);
+            selectionArgs = null;
+        }
+        return selectionArgsList;
     }
 
+    /**
+     * @return 可以修改的列表，修改会作用于这个请求，查询所有列时为空列表。第一次调用时复制内部数组。
+     */
     public List<String> getProjection() {
-        return projection;
+        if (projectionList == null) {
+            projectionList = toList(projection);
+            projection = null;
+        }
+        return projectionList;
+    }
+
+    /**
+     * @return 没有参数时返回 null，与传给 ContentResolver 的参数一致；没有调用过 {@link #getSelectionArgs()} 时不会复制。
+     */
+    String[] getSelectionArgsArray() {
+        return selectionArgsList != null ? toArray(selectionArgsList) : selectionArgs;
+    }
+
+    /**
+     * @return 查询所有列时返回 null；没有调用过 {@link #getProjection()} 时不会复制。
+     */
+    String[] getProjectionArray() {
+        return projectionList != null ? toArray(projectionList) : projection;
+    }
+
+    private static List<String> toList(String[] array) {
+        return array != null ? new ArrayList<>(Arrays.asList(array)) : new ArrayList<String>();
+    }
+
+    private static String[] toArray(List<String> list) {
+        return list.isEmpty() ? null : list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * @return 通过 {@link PreparedQuery} 执行时返回它，执行时直接使用其中的 Uri 和 SQL。
+     */
+    PreparedQuery getPreparedQuery() {
+        return preparedQuery;
     }
 
     public String getGroupBy() {
@@ -85,7 +264,13 @@ public class DbRequest {
         return having;
     }
 
+    /**
+     * @return 可以修改的 ContentValues，没有设置任何值时第一次调用才创建，不会返回 null。
+     */
     public ContentValues getValues() {
+        if (values == null) {
+            values = new ContentValues();
+        }
         return values;
     }
 
@@ -105,27 +290,58 @@ public class DbRequest {
         return dealOnUiThread;
     }
 
+    /**
+     * @return 可以修改的列表，没有设置时第一次调用才创建，不会返回 null。
+     */
     public ArrayList<ContentProviderOperation> getOperations() {
+        if (operations == null) {
+            operations = new ArrayList<>();
+        }
         return operations;
     }
 
+    public @BatchAtomicity int getBatchAtomicity() {
+        return batchAtomicity;
+    }
+
+    public ContentValues[] getBulkValues() {
+        return bulkValues;
+    }
+
+    public @Priority int getPriority() {
+        return priority;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
     public static class Builder {
 
         private String tableName;
         private @RequestType int requestType;
         private String selection;
-        private List<String> selectionArgs = new ArrayList<>();
-        private List<String> projection = new ArrayList<>();
+        /**
+         * 逐个添加时才创建列表，传入数组时直接使用数组。
+         */
+        private List<String> selectionArgs;
+        private String[] selectionArgsArray;
+        private List<String> projection;
+        private String[] projectionArray;
         private String groupBy;
         private String limit;
         private String sortOrder;
         private String having;
-        private ContentValues values = new ContentValues();
+        private ContentValues values;
         private IBaseCallback callback;
         private IConverter converter;
         private boolean rawQuery;
         private boolean dealOnUiThread;
-        private ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        private ArrayList<ContentProviderOperation> operations;
+        private @BatchAtomicity int batchAtomicity = BatchAtomicity.PER_CHUNK;
+        private ContentValues[] bulkValues;
+        private @Priority int priority = Priority.NORMAL;
+        private Executor callbackExecutor;
 
         public Builder tableName(String tableName) {
             this.tableName = tableName;
@@ -133,25 +349,53 @@ public class DbRequest {
         }
 
         public Builder selectionArgs(String selection) {
-            this.selectionArgs.add(selection);
+            this.selectionArgs = append(this.selectionArgs, this.selectionArgsArray, selection);
+            this.selectionArgsArray = null;
             return this;
         }
 
+        /**
+         * 数组直接被请求引用，执行完成前不要修改。
+         */
         public Builder selectionArgs(String[] selectionArgs) {
-            this.selectionArgs = Arrays.asList(selectionArgs);
+            this.selectionArgsArray = selectionArgs;
+            this.selectionArgs = null;
             return this;
         }
 
         public Builder projection(String projection) {
-            this.projection.add(projection);
+            this.projection = append(this.projection, this.projectionArray, projection);
+            this.projectionArray = null;
             return this;
         }
 
+        /**
+         * 数组直接被请求引用，执行完成前不要修改。
+         */
         public Builder projection(String[] projection) {
-            this.projection = Arrays.asList(projection);
+            this.projectionArray = projection;
+            this.projection = null;
             return this;
         }
 
+        private static List<String> append(List<String> list, String[] array, String value) {
+            if (list == null) {
+                list = new ArrayList<>(array != null ? array.length + 4 : 4);
+                if (array != null) {
+                    Collections.addAll(list, array);
+                }
+            }
+            list.add(value);
+            return list;
+        }
+
+        private ContentValues values() {
+            if (values == null) {
+                values = new ContentValues();
+            }
+            return values;
+        }
+
         public Builder requestType(@RequestType int requestType) {
             this.requestType = requestType;
             return this;
@@ -198,57 +442,65 @@ public class DbRequest {
         }
 
         public Builder put(String key, String value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder putAll(ContentValues other) {
-            this.values.putAll(other);
+            values().putAll(other);
+            return this;
+        }
+
+        /**
+         * 与 {@link #putAll} 不同，直接使用传入的对象，不会复制，执行完成前不要修改。
+         */
+        public Builder values(ContentValues values) {
+            this.values = values;
             return this;
         }
 
         public Builder put(String key, Byte value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder put(String key, Short value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder put(String key, Integer value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder put(String key, Long value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder put(String key, Float value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder put(String key, Double value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder put(String key, Boolean value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder put(String key, byte[] value) {
-            this.values.put(key, value);
+            values().put(key, value);
             return this;
         }
 
         public Builder putNull(String key) {
-            this.values.putNull(key);
+            values().putNull(key);
             return this;
         }
 
@@ -262,9 +514,43 @@ public class DbRequest {
             return this;
         }
 
+        /**
+         * 默认为 {@link BatchAtomicity#PER_CHUNK}，超过 yield 点上限的批量操作自动分块提交。
+         */
+        public Builder batchAtomicity(@BatchAtomicity int batchAtomicity) {
+            this.batchAtomicity = batchAtomicity;
+            return this;
+        }
+
+        public Builder bulkValues(ContentValues[] bulkValues) {
+            this.bulkValues = bulkValues;
+            return this;
+        }
+
+        public Builder bulkValues(List<ContentValues> bulkValues) {
+            this.bulkValues = bulkValues.toArray(new ContentValues[bulkValues.size()]);
+            return this;
+        }
+
+        /**
+         * 设置异步执行时的优先级，默认为 {@link Priority#NORMAL}。
+         */
+        public Builder priority(@Priority int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * 指定执行回调的 Executor，设置后 dealOnUiThread 不再生效。
+         */
+        public Builder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
         public DbRequest build() {
             if (converter == null) {
-                converter = new CursorConverter();
+                converter = DEFAULT_CONVERTER;
             }
             return new DbRequest(this);
         }
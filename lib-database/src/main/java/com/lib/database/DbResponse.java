@@ -4,11 +4,58 @@ import android.content.ContentProviderResult;
 
 public class DbResponse<T> {
 
+    private static final int MAX_POOL_SIZE = 8;
+    private static final Object POOL_LOCK = new Object();
+    private static DbResponse pool;
+    private static int poolSize;
+
     private T value;
     private long insertResult;
     private int deleteResult;
     private int updateResult;
     private ContentProviderResult[] applyBatchResult;
+    private Exception applyBatchError;
+    private int numSuccessfulYieldPoints;
+    private int bulkInsertResult;
+    private DbResponse next;
+
+    /**
+     * 从对象池中取出一个响应，调用方确定响应不会再被使用时可以 {@link #recycle()}。
+     */
+    @SuppressWarnings("unchecked")
+    static <T> DbResponse<T> obtain() {
+        synchronized (POOL_LOCK) {
+            if (pool != null) {
+                DbResponse<T> response = pool;
+                pool = response.next;
+                response.next = null;
+                poolSize--;
+                return response;
+            }
+        }
+        return new DbResponse<>();
+    }
+
+    /**
+     * 清空结果后放回对象池，只有 DbWorker 内部的同步调用在取出结果后回收。
+     */
+    void recycle() {
+        value = null;
+        insertResult = 0;
+        deleteResult = 0;
+        updateResult = 0;
+        applyBatchResult = null;
+        applyBatchError = null;
+        numSuccessfulYieldPoints = 0;
+        bulkInsertResult = 0;
+        synchronized (POOL_LOCK) {
+            if (poolSize < MAX_POOL_SIZE) {
+                next = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
+    }
 
     public T getValue() {
         return value;
@@ -30,6 +77,24 @@ public class DbResponse<T> {
         return applyBatchResult;
     }
 
+    /**
+     * @return 批量操作失败的原因，成功时返回 null。
+     */
+    public Exception getApplyBatchError() {
+        return applyBatchError;
+    }
+
+    /**
+     * @return 批量操作失败前已经提交的 yield 点数量。
+     */
+    public int getNumSuccessfulYieldPoints() {
+        return numSuccessfulYieldPoints;
+    }
+
+    public int getBulkInsertResult() {
+        return bulkInsertResult;
+    }
+
     public void setValue(T value) {
         this.value = value;
     }
@@ -49,4 +114,13 @@ public class DbResponse<T> {
     public void setApplyBatchResult(ContentProviderResult[] applyBatchResult) {
         this.applyBatchResult = applyBatchResult;
     }
+
+    public void setApplyBatchError(Exception applyBatchError, int numSuccessfulYieldPoints) {
+        this.applyBatchError = applyBatchError;
+        this.numSuccessfulYieldPoints = numSuccessfulYieldPoints;
+    }
+
+    public void setBulkInsertResult(int bulkInsertResult) {
+        this.bulkInsertResult = bulkInsertResult;
+    }
 }
@@ -1,32 +1,95 @@
 package com.lib.database;
 
 
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.util.Log;
 
+import com.lib.database.annotation.BatchAtomicity;
+import com.lib.database.annotation.LatencyStage;
+import com.lib.database.annotation.Priority;
 import com.lib.database.annotation.RequestType;
 import com.lib.database.callback.IApplyBatchCallback;
 import com.lib.database.callback.IBaseCallback;
+import com.lib.database.callback.IBulkInsertCallback;
+import com.lib.database.callback.ICancelableConverter;
+import com.lib.database.callback.IChunkCallback;
 import com.lib.database.callback.IConverter;
 import com.lib.database.callback.IDeleteCallback;
 import com.lib.database.callback.IInsertCallback;
 import com.lib.database.callback.IQueryCallback;
 import com.lib.database.callback.IUpdateCallback;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 用于处理单个数据库中的所有表。
  */
 public class DbWorker {
 
+    private static final String TAG = "DbWorker";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * 访问记录合并写入的间隔。
+     */
+    static final long TOUCH_FLUSH_DELAY_MILLIS = 5000;
+
+    private static final Runnable NO_OP = new Runnable() {
+
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * BACKGROUND 写请求等待 IMMEDIATE 查询的最长时间，超过后不再等待，避免写请求饿死。
+     */
+    static final long BACKGROUND_YIELD_MILLIS = 200;
+
     private Context context;
 
     /**
@@ -35,43 +98,109 @@ public class DbWorker {
     private Uri dbUri;
     private DbExecutor dbExecutor;
 
+    /**
+     * 开启写合并后，异步写请求先进入该队列，再批量提交。
+     */
+    private volatile WriteCoalescer writeCoalescer;
+
+    private volatile QueryCache queryCache;
+
+    private final SingleFlight<RequestTask> singleFlight = new SingleFlight<>();
+
+    private final DbMetrics metrics;
+
+    /**
+     * 已提交但还没有完成的 IMMEDIATE 查询数。
+     */
+    private final Object immediateReadLock = new Object();
+    private int pendingImmediateReads;
+
+    private volatile SQLiteContentProvider localProvider;
+    private volatile boolean localProviderResolved;
+    private ContentObserver queryCacheObserver;
+
+    /**
+     * 写操作串行执行，避免多个线程争抢 SQLite 的写锁。
+     * 写请求按提交顺序先进先出，不按优先级排序：后提交的写请求可能依赖前面的写入，
+     * 例如先插入再更新同一行，重新排序会改变结果。优先级只影响读请求的顺序和 BACKGROUND 写请求是否让路给 IMMEDIATE 查询。
+     */
+    private ExecutorService writeExecutor;
+
+    /**
+     * 读操作可并行执行，线程数有上限。
+     */
+    private ExecutorService readExecutor;
+
+    /**
+     * 执行延迟任务，用到时才创建。
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 等待批量写入的访问记录，表名到 rowid 集合。
+     */
+    private final Map<String, Set<Long>> pendingTouches = new HashMap<>();
+
+    private final ConcurrentHashMap<String, Uri> tableUris = new ConcurrentHashMap<>();
+    private boolean touchFlushScheduled;
+
     public DbWorker(Context context, Uri dbUri, DbExecutor dbExecutor) {
         this.dbUri = dbUri;
         this.context = context;
         this.dbExecutor = dbExecutor;
+        this.metrics = new DbMetrics(dbUri);
+        this.writeExecutor = createExecutor("write", dbExecutor.getWriteThreadCount(), true);
+        this.readExecutor = createExecutor("read", dbExecutor.getReadThreadCount(), false);
     }
 
     public <T> DbResponse<T> doSync(DbRequest dbRequest) {
-        return doRealWork(true, dbRequest);
+        return doRealWork(true, dbRequest, null);
     }
 
-    public Future doAsync(final DbRequest request) {
-        return dbExecutor.getExecutorService().submit(new Runnable() {
+    /**
+     * 可以从其他线程取消的同步请求，目前只有查询会响应取消。
+     * @throws OperationCanceledException 请求被取消。
+     */
+    public <T> DbResponse<T> doSync(DbRequest dbRequest, CancellationSignal cancellationSignal) {
+        return doRealWork(true, dbRequest, cancellationSignal);
+    }
 
-            @Override
-            public void run() {
-                doRealWork(false, request);
+    /**
+     * 异步执行请求。取消返回的 Future 会取消正在执行的 SQLite 查询和支持取消的转换器
+     * （{@link ICancelableConverter}），被取消的请求不会再回调。
+     * 与正在排队或执行的查询参数完全相同、使用同一个转换器对象的查询不会重复执行，而是等待那次查询的结果，各自回调；
+     * 使用 {@link CursorConverter} 的查询除外。
+     */
+    public Future doAsync(final DbRequest request) {
+        WriteCoalescer coalescer = writeCoalescer;
+        if (coalescer != null && request.getRequestType() != RequestType.QUERY) {
+            return coalescer.enqueue(request);
+        }
+        RequestTask task = new RequestTask(request);
+        if (request.getRequestType() == RequestType.QUERY && isDeduplicable(request)) {
+            SingleFlight.Flight<RequestTask> flight = singleFlight.acquire(new QueryKey(request), task, request.getPriority());
+            if (flight == null) {
+                return task;
             }
-        });
+            task.flight = flight;
+        }
+        task.submitTo(getExecutor(request.getRequestType()));
+        return task;
     }
 
     public <T> T doSyncQuery(String tableName, String[] projectionIn,
                              String selection, String[] selectionArgs, String groupBy,
                              String having, String sortOrder, String limit, IConverter<T> converter) {
-        DbRequest dbRequest = new DbRequest.Builder()
-                .tableName(tableName)
-                .requestType(RequestType.QUERY)
-                .projection(projectionIn)
-                .selection(selection)
-                .selectionArgs(selectionArgs)
-                .groupBy(groupBy)
-                .having(having)
-                .sortOrder(sortOrder)
-                .limit(limit)
-                .addConverter(converter)
-                .build();
-        DbResponse<T> dbResponse = doSync(dbRequest);
-        return dbResponse.getValue();
+        DbRequest dbRequest = DbRequest.obtainQuery(tableName, projectionIn, selection, selectionArgs,
+                groupBy, having, sortOrder, limit, converter);
+        try {
+            DbResponse<T> dbResponse = doSync(dbRequest);
+            T value = dbResponse.getValue();
+            dbResponse.recycle();
+            return value;
+        } finally {
+            dbRequest.recycle();
+        }
     }
 
     public Future doAsyncQuery(String tableName, String[] projectionIn,
@@ -94,14 +223,60 @@ public class DbWorker {
         return doAsync(dbRequest);
     }
 
+    /**
+     * 把查询请求编译成可以重复执行的 {@link PreparedQuery}，之后每次只传入新的 selectionArgs。
+     * @param template 查询请求，其中的 selectionArgs 和 callback 不会被使用；表名直接写入 SQL，
+     *                 不经过 Provider 的表名映射，见 {@link PreparedQuery}。
+     */
+    public <T> PreparedQuery<T> prepareQuery(DbRequest template) {
+        return new PreparedQuery<>(this, template);
+    }
+
+    /**
+     * 分批读取查询结果，每批最多 chunkSize 行，按 keyColumn 做 keyset 分页，单次查询的窗口不会很大。
+     * 每批数据都交给请求中的转换器转换后回调 {@link IChunkCallback#onChunk}，回调返回之后才会读取下一批。
+     * 请求中的 sortOrder 会被 keyColumn 的顺序代替，limit 表示最多读取的总行数，不支持 offset、groupBy、having 和 rawQuery。
+     * @param dbRequest 查询请求。
+     * @param keyColumn 分页使用的列，只能是 INTEGER、REAL 或 TEXT 值，不能为 NULL 或 BLOB；不是 _id 时会再用 _id 保证顺序唯一。
+     * @param descending 是否按降序读取。
+     * @param chunkSize 每批的行数。
+     * @param callback 接收每批数据。
+     * @return 一共读取的行数。
+     */
+    public int doSyncChunkedQuery(DbRequest dbRequest, String keyColumn, boolean descending, int chunkSize, IChunkCallback callback) {
+        return new ChunkedQuery(this, dbRequest, keyColumn, descending, chunkSize).run(callback, null, null);
+    }
+
+    /**
+     * 异步分批读取，参数见 {@link #doSyncChunkedQuery}。
+     * 请求设置了 dealOnUiThread 时每批数据在主线程回调，工作线程会等待回调返回后再读取下一批。
+     * 取消返回的 Future 后不会再读取和回调后续的批次。
+     */
+    public Future doAsyncChunkedQuery(final DbRequest dbRequest, String keyColumn, boolean descending, int chunkSize, final IChunkCallback callback) {
+        final ChunkedQuery chunkedQuery = new ChunkedQuery(this, dbRequest, keyColumn, descending, chunkSize);
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        PriorityTask<Void> task = new PriorityTask<>(new Runnable() {
+
+            @Override
+            public void run() {
+                chunkedQuery.run(callback, getCallbackExecutor(dbRequest), cancellationSignal);
+            }
+        }, dbRequest.getPriority(), cancellationSignal);
+        readExecutor.execute(task);
+        return task;
+    }
+
     public long doSyncInsert(String tableName, ContentValues values) {
-        DbRequest dbRequest = new DbRequest.Builder()
-                .tableName(tableName)
-                .requestType(RequestType.INSERT)
-                .putAll(values)
-                .build();
-        DbResponse dbResponse = doSync(dbRequest);
-        return dbResponse.getInsertResult();
+        //同步执行，values 在返回前不会被修改，不需要复制。
+        DbRequest dbRequest = DbRequest.obtainWrite(RequestType.INSERT, tableName, values, null, null);
+        try {
+            DbResponse dbResponse = doSync(dbRequest);
+            long id = dbResponse.getInsertResult();
+            dbResponse.recycle();
+            return id;
+        } finally {
+            dbRequest.recycle();
+        }
     }
 
     public Future doAsyncInsert(String tableName, ContentValues values, IInsertCallback callback, boolean dealOnUiThread) {
@@ -115,15 +290,52 @@ public class DbWorker {
         return doAsync(dbRequest);
     }
 
-    public int doSyncDelete(String tableName, String whereClause, String[] whereArgs) {
+    public int doSyncBulkInsert(String tableName, List<ContentValues> values) {
         DbRequest dbRequest = new DbRequest.Builder()
                 .tableName(tableName)
-                .requestType(RequestType.DELETE)
-                .selection(whereClause)
-                .selectionArgs(whereArgs)
+                .requestType(RequestType.BULK_INSERT)
+                .bulkValues(values)
                 .build();
         DbResponse dbResponse = doSync(dbRequest);
-        return dbResponse.getDeleteResult();
+        return dbResponse.getBulkInsertResult();
+    }
+
+    /**
+     * 按列批量插入，每一行的值与 columns 一一对应，所有行共用同一条编译好的插入语句。
+     * @param tableName 表名。
+     * @param columns 列名。
+     * @param rows 每一行的值。
+     * @return 插入成功的行数。
+     */
+    public int doSyncBulkInsert(String tableName, String[] columns, List<Object[]> rows) {
+        return doSyncBulkInsert(tableName, toContentValues(columns, rows));
+    }
+
+    public Future doAsyncBulkInsert(String tableName, List<ContentValues> values, IBulkInsertCallback callback, boolean dealOnUiThread) {
+        DbRequest dbRequest = new DbRequest.Builder()
+                .tableName(tableName)
+                .requestType(RequestType.BULK_INSERT)
+                .bulkValues(values)
+                .addCallback(callback)
+                .dealOnUiThread(dealOnUiThread)
+                .build();
+        return doAsync(dbRequest);
+    }
+
+    public Future doAsyncBulkInsert(String tableName, String[] columns, List<Object[]> rows, IBulkInsertCallback callback, boolean dealOnUiThread) {
+        return doAsyncBulkInsert(tableName, toContentValues(columns, rows), callback, dealOnUiThread);
+    }
+
+    public int doSyncDelete(String tableName, String whereClause, String[] whereArgs) {
+        DbRequest dbRequest = DbRequest.obtainWrite(RequestType.DELETE, tableName, null, whereClause, whereArgs);
+        try {
+            DbResponse dbResponse = doSync(dbRequest);
+            int count = dbResponse.getDeleteResult();
+            dbResponse.recycle();
+            return count;
+        } finally {
+            dbRequest.recycle();
+        }
     }
 
     public Future doAsyncDelete(String tableName, String whereClause, String[] whereArgs, IDeleteCallback callback, boolean dealOnUiThread) {
@@ -139,14 +351,15 @@ public class DbWorker {
     }
 
     public int doSyncUpdate(String tableName, ContentValues values, String whereClause, String[] whereArgs) {
-        DbRequest dbRequest = new DbRequest.Builder()
-                .tableName(tableName)
-                .requestType(RequestType.UPDATE)
-                .selection(whereClause)
-                .selectionArgs(whereArgs)
-                .putAll(values).build();
-        DbResponse dbResponse = doSync(dbRequest);
-        return dbResponse.getUpdateResult();
+        DbRequest dbRequest = DbRequest.obtainWrite(RequestType.UPDATE, tableName, values, whereClause, whereArgs);
+        try {
+            DbResponse dbResponse = doSync(dbRequest);
+            int count = dbResponse.getUpdateResult();
+            dbResponse.recycle();
+            return count;
+        } finally {
+            dbRequest.recycle();
+        }
     }
 
     public Future doAsyncUpdate(String tableName, ContentValues values, String whereClause, String[] whereArgs, IUpdateCallback callback, boolean dealOnUiThread) {
@@ -163,20 +376,53 @@ public class DbWorker {
     }
 
     public Future doAsyncApplyBatch(ArrayList<ContentProviderOperation> operations, IApplyBatchCallback callback) {
+        return doAsyncApplyBatch(operations, BatchAtomicity.PER_CHUNK, callback);
+    }
+
+    public Future doAsyncApplyBatch(ArrayList<ContentProviderOperation> operations, @BatchAtomicity int atomicity,
+                                    IApplyBatchCallback callback) {
         DbRequest dbRequest = new DbRequest.Builder()
+                .requestType(RequestType.APPLY_BATCH)
                 .operations(operations)
+                .batchAtomicity(atomicity)
+                .addCallback(callback)
                 .build();
         return doAsync(dbRequest);
     }
 
     public ContentProviderResult[] doSyncApplyBatch(ArrayList<ContentProviderOperation> operations) {
+        return doSyncApplyBatch(operations, BatchAtomicity.PER_CHUNK);
+    }
+
+    /**
+     * 失败时返回空数组，需要失败原因和已经提交的 yield 点数量时使用 {@link #doSync(DbRequest)}，
+     * 从 {@link DbResponse#getApplyBatchError()} 中读取。
+     */
+    public ContentProviderResult[] doSyncApplyBatch(ArrayList<ContentProviderOperation> operations, @BatchAtomicity int atomicity) {
         DbRequest dbRequest = new DbRequest.Builder()
+                .requestType(RequestType.APPLY_BATCH)
                 .operations(operations)
+                .batchAtomicity(atomicity)
                 .build();
         DbResponse dbResponse = doSync(dbRequest);
         return dbResponse.getApplyBatchResult();
     }
 
+    /**
+     * 创建一个实时查询：立即执行一次，之后每当表发生变化时在读线程重新执行，结果变化时回调。
+     * 回调所在的线程由请求的 callbackExecutor 和 dealOnUiThread 决定。结果通过 equals 比较，
+     * 转换后的对象需要实现 equals，使用 {@link CursorConverter} 时每次都会回调。
+     * @param dbRequest 查询请求，其中的 callback 不会被使用。
+     * @param throttleMillis 两次查询之间的最小间隔。
+     * @param callback 接收查询结果。
+     * @return 不再需要时调用 {@link LiveQuery#close()}。
+     */
+    public <T> LiveQuery<T> liveQuery(DbRequest dbRequest, long throttleMillis, IQueryCallback<T> callback) {
+        LiveQuery<T> liveQuery = new LiveQuery<>(this, dbRequest, throttleMillis, callback);
+        liveQuery.start();
+        return liveQuery;
+    }
+
     public void registerContentObserver(String tableName, boolean notifyForDescendants, ContentObserver observer) {
         context.getContentResolver().registerContentObserver(getTableUri(tableName), notifyForDescendants, observer);
     }
@@ -185,104 +431,735 @@ public class DbWorker {
         context.getContentResolver().unregisterContentObserver(observer);
     }
 
+    /**
+     * Uri 不可变，每张表的 Uri 只构造一次。
+     */
     public Uri getTableUri(String tableName) {
-        return dbUri.buildUpon().appendQueryParameter(Constant.TABLE_NAME, tableName).build();
+        if (tableName == null) {
+            return dbUri.buildUpon().appendQueryParameter(Constant.TABLE_NAME, null).build();
+        }
+        Uri uri = tableUris.get(tableName);
+        if (uri == null) {
+            uri = dbUri.buildUpon().appendQueryParameter(Constant.TABLE_NAME, tableName).build();
+            Uri existing = tableUris.putIfAbsent(tableName, uri);
+            if (existing != null) {
+                uri = existing;
+            }
+        }
+        return uri;
+    }
+
+    /**
+     * 记录有容量上限的表中的行被访问过，{@link #TOUCH_FLUSH_DELAY_MILLIS} 内的访问合并为一次写入，
+     * 在写线程以最低优先级执行，见 {@link BoundedTable}。
+     */
+    public void touch(String tableName, long... rowIds) {
+        synchronized (pendingTouches) {
+            Set<Long> ids = pendingTouches.get(tableName);
+            if (ids == null) {
+                ids = new HashSet<>();
+                pendingTouches.put(tableName, ids);
+            }
+            for (long rowId : rowIds) {
+                ids.add(rowId);
+            }
+            if (touchFlushScheduled) {
+                return;
+            }
+            touchFlushScheduled = true;
+        }
+        schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                writeExecutor.execute(new PriorityTask<Void>(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        flushTouches();
+                    }
+                }, Priority.BACKGROUND));
+            }
+        }, TOUCH_FLUSH_DELAY_MILLIS);
+    }
+
+    private void flushTouches() {
+        Map<String, Set<Long>> touches;
+        synchronized (pendingTouches) {
+            touches = new HashMap<>(pendingTouches);
+            pendingTouches.clear();
+            touchFlushScheduled = false;
+        }
+        long accessTime = System.currentTimeMillis();
+        for (Map.Entry<String, Set<Long>> entry : touches.entrySet()) {
+            long[] rowIds = new long[entry.getValue().size()];
+            int i = 0;
+            for (Long rowId : entry.getValue()) {
+                rowIds[i++] = rowId;
+            }
+            Bundle extras = new Bundle();
+            extras.putLongArray(Constant.EXTRA_ROW_IDS, rowIds);
+            extras.putLong(Constant.EXTRA_ACCESS_TIME, accessTime);
+            call(Constant.METHOD_TOUCH, entry.getKey(), extras);
+        }
+    }
+
+    private Bundle call(String method, String arg, Bundle extras) {
+        SQLiteContentProvider provider = getLocalProvider();
+        if (provider != null) {
+            return provider.call(method, arg, extras);
+        }
+        return context.getContentResolver().call(dbUri, method, arg, extras);
+    }
+
+    /**
+     * @return 值是否为转存到文件的 BLOB 的引用，见 {@link DbConfig.Builder#blobOffloadThreshold}。
+     */
+    public static boolean isBlobReference(String value) {
+        return BlobStore.isReference(value);
+    }
+
+    /**
+     * 打开引用对应的文件，可以用 {@link ParcelFileDescriptor.AutoCloseInputStream} 流式读取，用完后需要关闭。
+     * @param reference 行中保存的引用。
+     */
+    public ParcelFileDescriptor openBlob(String reference) throws FileNotFoundException {
+        String hash = BlobStore.getHash(reference);
+        if (hash == null) {
+            throw new FileNotFoundException("not a blob reference: " + reference);
+        }
+        Uri uri = dbUri.buildUpon().appendQueryParameter(Constant.BLOB, hash).build();
+        SQLiteContentProvider provider = getLocalProvider();
+        if (provider != null) {
+            return provider.openFile(uri, "r");
+        }
+        ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("provider returned no file for " + uri);
+        }
+        return descriptor;
+    }
+
+    /**
+     * 以只读方式把引用对应的文件映射到内存，不经过 Java 堆。映射建立后文件描述符即被关闭，映射在被回收前一直有效。
+     */
+    public MappedByteBuffer mapBlob(String reference) throws IOException {
+        ParcelFileDescriptor descriptor = openBlob(reference);
+        FileInputStream input = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        try {
+            FileChannel channel = input.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            input.close();
+        }
     }
 
     public String parseTableName(Uri uri) {
         return uri.getQueryParameter(Constant.TABLE_NAME);
     }
 
-    private <T> DbResponse<T> doRealWork(boolean sync, DbRequest dbRequest) {
+    /**
+     * 开启查询结果缓存，缓存的是转换器转换后的结果。通过本对象或其他途径修改表后，该表的缓存会失效。
+     * 缓存的结果会被多个调用方共享，调用方不应修改它；使用 {@link CursorConverter} 和 rawQuery 的查询不会被缓存。
+     * 只有使用同一个转换器对象的查询才会命中缓存，需要缓存的查询应复用转换器，而不是每次创建新的实例。
+     * @param maxWeight 缓存的总权重上限。
+     * @param weigher 计算单个结果的权重，为 null 时集合按元素个数计算，其他结果权重为 1。
+     */
+    public synchronized void enableQueryCache(int maxWeight, QueryCache.Weigher weigher) {
+        if (queryCacheObserver == null) {
+            queryCacheObserver = new ContentObserver(null) {
+
+                @Override
+                public void onChange(boolean selfChange) {
+                    QueryCache cache = queryCache;
+                    if (cache != null) {
+                        cache.invalidateAll();
+                    }
+                }
+
+                @Override
+                public void onChange(boolean selfChange, Uri uri) {
+                    String tableName = uri != null ? parseTableName(uri) : null;
+                    if (tableName == null) {
+                        onChange(selfChange);
+                    } else {
+                        invalidateQueryCache(tableName);
+                    }
+                }
+            };
+            context.getContentResolver().registerContentObserver(dbUri, true, queryCacheObserver);
+        }
+        queryCache = new QueryCache(maxWeight, weigher);
+    }
+
+    public synchronized void disableQueryCache() {
+        queryCache = null;
+        if (queryCacheObserver != null) {
+            context.getContentResolver().unregisterContentObserver(queryCacheObserver);
+            queryCacheObserver = null;
+        }
+    }
+
+    /**
+     * @return 查询缓存，可以读取命中率等统计信息，未开启时返回 null。
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * 开启写合并：排队中的异步 INSERT/UPDATE/DELETE 会被合并到同一个事务中执行，每个请求仍然收到各自的回调。
+     * @param maxBatchSize 单个事务最多合并的请求数。
+     * @param windowMillis 第一个请求进入空队列后收集请求的时间，为 0 时只合并已经在排队的请求；
+     *                     等待期间不占用写线程。
+     */
+    public void enableWriteCoalescing(int maxBatchSize, long windowMillis) {
+        writeCoalescer = new WriteCoalescer(this, writeExecutor, maxBatchSize, windowMillis);
+    }
+
+    /**
+     * 关闭写合并，已经排队的请求仍会执行完。
+     */
+    public void disableWriteCoalescing() {
+        WriteCoalescer coalescer = writeCoalescer;
+        writeCoalescer = null;
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+    }
+
+    /**
+     * @return 该数据库中各表、各类请求在每个阶段的耗时统计。
+     */
+    public List<LatencyStats> getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * @return 因为与同时在执行的相同查询合并而省去的查询次数。
+     */
+    public long getDeduplicatedQueryCount() {
+        return singleFlight.savedCount();
+    }
+
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    public void shutdown() {
+        disableQueryCache();
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+        //延迟任务已被取消，等待合并的写请求和未写入的访问记录在写线程关闭前写入。
+        WriteCoalescer coalescer = writeCoalescer;
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+        synchronized (pendingTouches) {
+            if (touchFlushScheduled) {
+                writeExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        flushTouches();
+                    }
+                });
+            }
+        }
+        writeExecutor.shutdown();
+        readExecutor.shutdown();
+    }
+
+    /**
+     * 在读线程执行一个查询任务。
+     */
+    Future submitQuery(Runnable runnable, @Priority int priority) {
+        PriorityTask<Void> task = new PriorityTask<>(runnable, priority);
+        readExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * 延迟 delayMillis 后执行 runnable，runnable 中不应执行耗时的操作。
+     */
+    synchronized Future schedule(Runnable runnable, long delayMillis) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new WorkerThreadFactory(dbUri.getAuthority() + "-scheduler"));
+        }
+        return scheduler.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private ExecutorService getExecutor(@RequestType int requestType) {
+        return requestType == RequestType.QUERY ? readExecutor : writeExecutor;
+    }
+
+    /**
+     * 在请求类型对应的读或写线程中执行 callable，{@link ShardedDatabase} 用它让各个分片并行执行。
+     */
+    <V> Future<V> submit(@RequestType int requestType, @Priority int priority, Callable<V> callable) {
+        PriorityTask<V> task = new PriorityTask<>(callable, priority, null);
+        getExecutor(requestType).execute(task);
+        return task;
+    }
+
+    private List<ContentValues> toContentValues(String[] columns, List<Object[]> rows) {
+        List<ContentValues> valuesList = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            if (row.length != columns.length) {
+                throw new IllegalArgumentException("row has " + row.length + " values, but " + columns.length + " columns");
+            }
+            ContentValues values = new ContentValues(columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                putValue(values, columns[i], row[i]);
+            }
+            valuesList.add(values);
+        }
+        return valuesList;
+    }
+
+    private void putValue(ContentValues values, String column, Object value) {
+        if (value == null) {
+            values.putNull(column);
+        } else if (value instanceof String) {
+            values.put(column, (String) value);
+        } else if (value instanceof Long) {
+            values.put(column, (Long) value);
+        } else if (value instanceof Integer) {
+            values.put(column, (Integer) value);
+        } else if (value instanceof Short) {
+            values.put(column, (Short) value);
+        } else if (value instanceof Byte) {
+            values.put(column, (Byte) value);
+        } else if (value instanceof Double) {
+            values.put(column, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(column, (Float) value);
+        } else if (value instanceof Boolean) {
+            values.put(column, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            values.put(column, (byte[]) value);
+        } else {
+            throw new IllegalArgumentException("unsupported value type " + value.getClass() + " for column " + column);
+        }
+    }
+
+    /**
+     * @param ordered 为 true 时按提交顺序执行，否则按 {@link PriorityTaskQueue} 的优先级执行。
+     */
+    private ExecutorService createExecutor(String name, int threadCount, boolean ordered) {
+        BlockingQueue<Runnable> queue = ordered ? new LinkedBlockingQueue<Runnable>() : new PriorityTaskQueue();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue,
+                new WorkerThreadFactory(dbUri.getAuthority() + "-" + name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private <T> DbResponse<T> doRealWork(boolean sync, DbRequest dbRequest, CancellationSignal cancellationSignal) {
+        if (dbRequest.getPriority() == Priority.BACKGROUND && dbRequest.getRequestType() != RequestType.QUERY) {
+            yieldToImmediateReads();
+        }
+        DbResponse<T> response;
+        try {
+            response = execute(dbRequest, cancellationSignal);
+        } catch (RuntimeException e) {
+            //SQLite 和 ContentResolver 抛出的取消异常类型不同，统一转换为 support 包中的异常。
+            if (cancellationSignal == null || !cancellationSignal.isCanceled()) {
+                throw e;
+            }
+            if (sync) {
+                throw e instanceof OperationCanceledException ? e : new OperationCanceledException(e.getMessage());
+            }
+            return null;
+        }
+        if (!sync && !isCanceled(cancellationSignal)) {
+            postResponse(dbRequest, response, cancellationSignal);
+        }
+        return response;
+    }
+
+    private static boolean isCanceled(CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
+
+    private void onImmediateReadSubmitted() {
+        synchronized (immediateReadLock) {
+            pendingImmediateReads++;
+        }
+    }
+
+    private void onImmediateReadDone() {
+        synchronized (immediateReadLock) {
+            if (--pendingImmediateReads == 0) {
+                immediateReadLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 有 IMMEDIATE 查询在排队或执行时，最多等待 {@link #BACKGROUND_YIELD_MILLIS} 再开始写事务，
+     * 避免后台的大事务占住数据库锁，让界面等待的查询排在它后面。
+     */
+    void yieldToImmediateReads() {
+        synchronized (immediateReadLock) {
+            long deadline = SystemClock.uptimeMillis() + BACKGROUND_YIELD_MILLIS;
+            long remaining;
+            while (pendingImmediateReads > 0 && (remaining = deadline - SystemClock.uptimeMillis()) > 0) {
+                try {
+                    immediateReadLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    <T> DbResponse<T> execute(DbRequest dbRequest) {
+        return execute(dbRequest, null);
+    }
+
+    private <T> DbResponse<T> execute(DbRequest dbRequest, CancellationSignal cancellationSignal) {
         DbResponse<T> response = null;
         @RequestType int requestType = dbRequest.getRequestType();
         switch (requestType) {
             case RequestType.QUERY: {
-                String[] projection = null;
-                String selection = null;
-                String[] selectionArgs = null;
-                if (dbRequest.getProjection() != null) {
-                    projection = dbRequest.getProjection().toArray(new String[]{});
+                QueryCache cache = queryCache;
+                QueryKey cacheKey = null;
+                long cacheVersion = 0;
+                if (cache != null && isCacheable(dbRequest)) {
+                    cacheKey = new QueryKey(dbRequest);
+                    Object cached = cache.get(cacheKey);
+                    if (cached != null) {
+                        response = DbResponse.obtain();
+                        response.setValue((T) cached);
+                        break;
+                    }
+                    cacheVersion = cache.version(dbRequest.getTableName());
                 }
-                if (dbRequest.getSelection() != null && dbRequest.getSelectionArgs() != null) {
-                    selection = dbRequest.getSelection();
-                    selectionArgs = dbRequest.getSelectionArgs().toArray(new String[]{});
-                }
-                Uri.Builder builder = getTableUri(dbRequest.getTableName()).buildUpon();
-                if (dbRequest.getGroupBy() != null) {
-                    builder.appendQueryParameter(Constant.GROUP_BY, dbRequest.getGroupBy());
-                }
-                if (dbRequest.getHaving() != null) {
-                    builder.appendQueryParameter(Constant.HAVING, dbRequest.getHaving());
-                }
-                if (dbRequest.getLimit() != null) {
-                    builder.appendQueryParameter(Constant.LIMIT, dbRequest.getLimit());
-                }
-                if (dbRequest.isRawQuery()) {
-                    builder.appendQueryParameter(Constant.RAW_QUERY, "true");
-                }
-                Cursor cursor = context.getContentResolver().query(builder.build(), projection, selection, selectionArgs, dbRequest.getSortOrder());
+                long queryStart = System.nanoTime();
+                PreparedQuery prepared = dbRequest.getPreparedQuery();
+                Cursor cursor = prepared != null
+                        ? query(prepared.getUri(), null, prepared.getSql(), dbRequest.getSelectionArgsArray(), null, cancellationSignal)
+                        : query(buildQueryUri(dbRequest), dbRequest.getProjectionArray(), dbRequest.getSelection(),
+                        dbRequest.getSelectionArgsArray(), dbRequest.getSortOrder(), cancellationSignal);
+                long convertStart = recordLatency(dbRequest, LatencyStage.EXECUTE, queryStart);
                 IConverter<T> IConverter = dbRequest.getIConverter();
-                T value = IConverter.convert(cursor);
-                response = new DbResponse<>();
+                T value = convert(IConverter, cursor, cancellationSignal);
+                recordLatency(dbRequest, LatencyStage.CONVERT, convertStart);
+                if (cacheKey != null) {
+                    cache.put(cacheKey, value, cacheVersion);
+                }
+                response = DbResponse.obtain();
                 response.setValue(value);
                 break;
             }
             case RequestType.INSERT: {
-                Uri uri = context.getContentResolver().insert(getTableUri(dbRequest.getTableName()), dbRequest.getValues());
-                response = new DbResponse<>();
-                response.setInsertResult(ContentUris.parseId(uri));
+                long start = System.nanoTime();
+                Uri uri = insert(getTableUri(dbRequest.getTableName()), dbRequest.getValues());
+                recordLatency(dbRequest, LatencyStage.EXECUTE, start);
+                invalidateQueryCache(dbRequest.getTableName());
+                response = DbResponse.obtain();
+                response.setInsertResult(uri != null ? ContentUris.parseId(uri) : -1);
                 break;
             }
             case RequestType.DELETE: {
-                String selection = null;
-                String[] selectionArgs = null;
-                if (dbRequest.getSelection() != null && dbRequest.getSelectionArgs() != null) {
-                    selection = dbRequest.getSelection();
-                    selectionArgs = dbRequest.getSelectionArgs().toArray(new String[]{});
-                }
-                int count = context.getContentResolver().delete(getTableUri(dbRequest.getTableName()), selection, selectionArgs);
-                response = new DbResponse<>();
+                long start = System.nanoTime();
+                int count = delete(getTableUri(dbRequest.getTableName()), dbRequest.getSelection(), dbRequest.getSelectionArgsArray());
+                recordLatency(dbRequest, LatencyStage.EXECUTE, start);
+                invalidateQueryCache(dbRequest.getTableName());
+                response = DbResponse.obtain();
                 response.setDeleteResult(count);
                 break;
             }
             case RequestType.UPDATE: {
-                String selection = null;
-                String[] selectionArgs = null;
-                if (dbRequest.getSelection() != null && dbRequest.getSelectionArgs() != null) {
-                    selection = dbRequest.getSelection();
-                    selectionArgs = dbRequest.getSelectionArgs().toArray(new String[]{});
-                }
-                int count = context.getContentResolver().update(getTableUri(dbRequest.getTableName()), dbRequest.getValues(), selection, selectionArgs);
-                response = new DbResponse<>();
+                long start = System.nanoTime();
+                int count = update(getTableUri(dbRequest.getTableName()), dbRequest.getValues(),
+                        dbRequest.getSelection(), dbRequest.getSelectionArgsArray());
+                recordLatency(dbRequest, LatencyStage.EXECUTE, start);
+                invalidateQueryCache(dbRequest.getTableName());
+                response = DbResponse.obtain();
                 response.setUpdateResult(count);
                 break;
             }
+            case RequestType.BULK_INSERT: {
+                ContentValues[] bulkValues = dbRequest.getBulkValues();
+                int count = 0;
+                if (bulkValues != null && bulkValues.length > 0) {
+                    long start = System.nanoTime();
+                    count = bulkInsert(getTableUri(dbRequest.getTableName()), bulkValues);
+                    recordLatency(dbRequest, LatencyStage.EXECUTE, start);
+                    invalidateQueryCache(dbRequest.getTableName());
+                }
+                response = DbResponse.obtain();
+                response.setBulkInsertResult(count);
+                break;
+            }
             case RequestType.APPLY_BATCH: {
                 ContentProviderResult[] results = new ContentProviderResult[0];
+                Exception error = null;
+                int numSuccessfulYieldPoints = 0;
+                long start = System.nanoTime();
                 try {
-                    results = context.getContentResolver().applyBatch(dbUri.getAuthority(), dbRequest.getOperations());
+                    results = applyBatch(dbRequest.getOperations(), dbRequest.getBatchAtomicity());
+                } catch (OperationApplicationException e) {
+                    Log.e(TAG, "applyBatch failed, numSuccessfulYieldPoints=" + e.getNumSuccessfulYieldPoints(), e);
+                    error = e;
+                    numSuccessfulYieldPoints = e.getNumSuccessfulYieldPoints();
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    Log.e(TAG, "applyBatch failed", e);
+                    error = e;
                 }
-                response = new DbResponse<>();
+                recordLatency(dbRequest, LatencyStage.EXECUTE, start);
+                response = DbResponse.obtain();
                 response.setApplyBatchResult(results);
+                response.setApplyBatchError(error, numSuccessfulYieldPoints);
+                break;
             }
             default:
                 break;
         }
-        if (!sync) {
-            postResponse(dbRequest, response);
-        }
         return response;
     }
 
-    private  <T> void postResponse(final DbRequest dbRequest, final DbResponse<T> dbResponse) {
-        if (dbRequest.isDealOnUiThread()) {
-            dbExecutor.getMainHandler().post(new Runnable() {
+    /**
+     * 没有 groupBy、having、limit 和 rawQuery 时直接使用缓存的表 Uri，不再构造新的 Uri。
+     */
+    private Uri buildQueryUri(DbRequest dbRequest) {
+        Uri tableUri = getTableUri(dbRequest.getTableName());
+        if (dbRequest.getGroupBy() == null && dbRequest.getHaving() == null && dbRequest.getLimit() == null && !dbRequest.isRawQuery()) {
+            return tableUri;
+        }
+        Uri.Builder builder = tableUri.buildUpon();
+        if (dbRequest.getGroupBy() != null) {
+            builder.appendQueryParameter(Constant.GROUP_BY, dbRequest.getGroupBy());
+        }
+        if (dbRequest.getHaving() != null) {
+            builder.appendQueryParameter(Constant.HAVING, dbRequest.getHaving());
+        }
+        if (dbRequest.getLimit() != null) {
+            builder.appendQueryParameter(Constant.LIMIT, dbRequest.getLimit());
+        }
+        if (dbRequest.isRawQuery()) {
+            builder.appendQueryParameter(Constant.RAW_QUERY, "true");
+        }
+        return builder.build();
+    }
+
+    Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        SQLiteContentProvider provider = getLocalProvider();
+        if (provider == null) {
+            return ContentResolverCompat.query(context.getContentResolver(), uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        }
+        if (cancellationSignal != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return provider.query(uri, projection, selection, selectionArgs, sortOrder,
+                    (android.os.CancellationSignal) cancellationSignal.getCancellationSignalObject());
+        }
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+        return provider.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * 转换前检查是否已经取消，转换器支持取消时把 cancellationSignal 传给它。
+     */
+    <T> T convert(IConverter<T> converter, Cursor cursor, CancellationSignal cancellationSignal) {
+        if (isCanceled(cancellationSignal)) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            throw new OperationCanceledException();
+        }
+        if (cancellationSignal != null && converter instanceof ICancelableConverter) {
+            return ((ICancelableConverter<T>) converter).convert(cursor, cancellationSignal);
+        }
+        return converter.convert(cursor);
+    }
+
+    private Uri insert(Uri uri, ContentValues values) {
+        SQLiteContentProvider provider = getLocalProvider();
+        if (provider != null) {
+            return provider.insert(uri, values);
+        }
+        return context.getContentResolver().insert(uri, values);
+    }
+
+    private int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteContentProvider provider = getLocalProvider();
+        if (provider != null) {
+            return provider.bulkInsert(uri, values);
+        }
+        return context.getContentResolver().bulkInsert(uri, values);
+    }
+
+    private int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        SQLiteContentProvider provider = getLocalProvider();
+        if (provider != null) {
+            return provider.update(uri, values, selection, selectionArgs);
+        }
+        return context.getContentResolver().update(uri, values, selection, selectionArgs);
+    }
+
+    private int delete(Uri uri, String selection, String[] selectionArgs) {
+        SQLiteContentProvider provider = getLocalProvider();
+        if (provider != null) {
+            return provider.delete(uri, selection, selectionArgs);
+        }
+        return context.getContentResolver().delete(uri, selection, selectionArgs);
+    }
+
+    /**
+     * 如果数据库对应的 SQLiteContentProvider 与调用方在同一个进程中，返回它的实例，之后直接调用它的方法，
+     * 省去 ContentResolver 查找 Provider、权限检查和包装 Cursor 的开销；否则返回 null，仍然通过 ContentResolver 访问。
+     */
+    private SQLiteContentProvider getLocalProvider() {
+        if (!localProviderResolved) {
+            synchronized (this) {
+                if (!localProviderResolved) {
+                    ContentProviderClient client = context.getContentResolver().acquireContentProviderClient(dbUri.getAuthority());
+                    if (client != null) {
+                        ContentProvider provider = client.getLocalContentProvider();
+                        if (provider instanceof SQLiteContentProvider) {
+                            localProvider = (SQLiteContentProvider) provider;
+                        }
+                        client.release();
+                    }
+                    localProviderResolved = true;
+                }
+            }
+        }
+        return localProvider;
+    }
+
+    ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws RemoteException, OperationApplicationException {
+        return applyBatch(operations, BatchAtomicity.PER_CHUNK);
+    }
+
+    /**
+     * ContentResolver.applyBatch 无法传递 atomicity，跨进程执行 {@link BatchAtomicity#WHOLE_BATCH} 时
+     * 把操作列表放到 Bundle 中，通过 {@link Constant#METHOD_APPLY_BATCH} 调用。
+     */
+    ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations, @BatchAtomicity int atomicity)
+            throws RemoteException, OperationApplicationException {
+        try {
+            SQLiteContentProvider provider = getLocalProvider();
+            if (provider != null) {
+                return provider.applyBatch(operations, atomicity);
+            }
+            if (atomicity == BatchAtomicity.PER_CHUNK) {
+                return context.getContentResolver().applyBatch(dbUri.getAuthority(), operations);
+            }
+            Bundle extras = new Bundle();
+            extras.putParcelableArrayList(Constant.EXTRA_OPERATIONS, operations);
+            extras.putInt(Constant.EXTRA_ATOMICITY, atomicity);
+            Bundle result = context.getContentResolver().call(dbUri, Constant.METHOD_APPLY_BATCH, null, extras);
+            if (result != null && result.getString(Constant.EXTRA_ERROR) != null) {
+                throw new OperationApplicationException(result.getString(Constant.EXTRA_ERROR),
+                        result.getInt(Constant.EXTRA_SUCCESSFUL_YIELD_POINTS, 0));
+            }
+            Parcelable[] parcelables = result != null ? result.getParcelableArray(Constant.EXTRA_RESULTS) : null;
+            if (parcelables == null) {
+                return new ContentProviderResult[0];
+            }
+            ContentProviderResult[] results = new ContentProviderResult[parcelables.length];
+            System.arraycopy(parcelables, 0, results, 0, parcelables.length);
+            return results;
+        } finally {
+            for (ContentProviderOperation operation : operations) {
+                invalidateQueryCache(parseTableName(operation.getUri()));
+            }
+        }
+    }
+
+    /**
+     * 结果会交给多个调用方，返回 Cursor 的查询不能合并。
+     */
+    private boolean isDeduplicable(DbRequest dbRequest) {
+        return dbRequest.getIConverter() != null
+                && !(dbRequest.getIConverter() instanceof CursorConverter)
+                && !(dbRequest.getIConverter() instanceof DiffingConverter);
+    }
+
+    /**
+     * leader 执行完后把结果交给所有 follower；leader 失败或被取消时，follower 各自重新执行。
+     */
+    private void finishFlight(SingleFlight.Flight<RequestTask> flight, DbResponse response) {
+        for (RequestTask follower : singleFlight.finish(flight)) {
+            if (response != null) {
+                if (follower.completeAsFollower(response)) {
+                    singleFlight.onFollowerServed();
+                }
+            } else if (!follower.isDone()) {
+                try {
+                    follower.submitTo(readExecutor);
+                } catch (RejectedExecutionException e) {
+                    //DbWorker 已经关闭，不再执行。
+                    follower.cancel(false);
+                }
+            }
+        }
+    }
+
+    private boolean isCacheable(DbRequest dbRequest) {
+        //CursorConverter 返回的 Cursor 不能被多个调用方共享，DiffingConverter 的结果依赖它自己上一次的结果。
+        return !dbRequest.isRawQuery()
+                && dbRequest.getTableName() != null
+                && dbRequest.getIConverter() != null
+                && !(dbRequest.getIConverter() instanceof CursorConverter)
+                && !(dbRequest.getIConverter() instanceof DiffingConverter);
+    }
+
+    void invalidateQueryCache(String tableName) {
+        singleFlight.detach(tableName);
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.invalidate(tableName);
+        }
+    }
+
+    /**
+     * 记录从 startNanos 到现在的耗时。
+     * @return 当前时间，可以作为下一个阶段的开始时间。
+     */
+    long recordLatency(DbRequest dbRequest, @LatencyStage int stage, long startNanos) {
+        long now = System.nanoTime();
+        if (dbExecutor.isMetricsEnabled()) {
+            metrics.record(dbRequest.getTableName(), dbRequest.getRequestType(), stage, now - startNanos);
+        }
+        return now;
+    }
+
+    <T> void postResponse(DbRequest dbRequest, DbResponse<T> dbResponse) {
+        postResponse(dbRequest, dbResponse, null);
+    }
+
+    /**
+     * @return 执行请求回调的 Executor，为 null 时在工作线程直接回调。
+     */
+    Executor getCallbackExecutor(DbRequest dbRequest) {
+        if (dbRequest.getCallbackExecutor() != null) {
+            return dbRequest.getCallbackExecutor();
+        }
+        return dbRequest.isDealOnUiThread() ? dbExecutor.getCallbackDispatcher() : null;
+    }
+
+    private <T> void postResponse(final DbRequest dbRequest, final DbResponse<T> dbResponse, final CancellationSignal cancellationSignal) {
+        Executor callbackExecutor = getCallbackExecutor(dbRequest);
+        if (callbackExecutor != null) {
+            final long postTime = System.nanoTime();
+            callbackExecutor.execute(new Runnable() {
 
                 @Override
                 public void run() {
+                    if (isCanceled(cancellationSignal)) {
+                        //在等待回调线程期间被取消。
+                        return;
+                    }
+                    recordLatency(dbRequest, LatencyStage.DELIVER, postTime);
                     realPostResponse(dbRequest, dbResponse);
                 }
 
@@ -309,7 +1186,15 @@ public class DbWorker {
                     ((IUpdateCallback) callback).onUpdateComplete(dbResponse.getUpdateResult());
                     break;
                 case RequestType.APPLY_BATCH:
-                    ((IApplyBatchCallback) callback).onApplyBatchComplete(dbResponse.getApplyBatchResult());
+                    if (dbResponse.getApplyBatchError() != null) {
+                        ((IApplyBatchCallback) callback).onApplyBatchFailed(dbResponse.getApplyBatchError(),
+                                dbResponse.getNumSuccessfulYieldPoints());
+                    } else {
+                        ((IApplyBatchCallback) callback).onApplyBatchComplete(dbResponse.getApplyBatchResult());
+                    }
+                    break;
+                case RequestType.BULK_INSERT:
+                    ((IBulkInsertCallback) callback).onBulkInsertComplete(dbResponse.getBulkInsertResult());
                     break;
                 default:
                     break;
@@ -317,4 +1202,98 @@ public class DbWorker {
         }
     }
 
+    /**
+     * 一个异步请求。作为 follower 时不会被提交到线程池，而是等 leader 完成后通过 {@link #completeAsFollower} 完成。
+     */
+    private final class RequestTask extends PriorityTask<Void> {
+
+        final DbRequest request;
+        private final long submitTime = System.nanoTime();
+        private final boolean immediateRead;
+        /**
+         * 被线程池接受后才计入 pendingImmediateReads，作为 follower 等待 leader 时不计入。
+         */
+        private final AtomicBoolean countedAsImmediateRead = new AtomicBoolean();
+
+        /**
+         * 作为 leader 执行时对应的 flight。
+         */
+        SingleFlight.Flight<RequestTask> flight;
+        private DbResponse response;
+
+        RequestTask(DbRequest request) {
+            super(NO_OP, request.getPriority(), new CancellationSignal());
+            this.request = request;
+            this.immediateRead = request.getPriority() == Priority.IMMEDIATE && request.getRequestType() == RequestType.QUERY;
+        }
+
+        /**
+         * 交给线程池执行。先计数再提交，任务可能在 execute 返回前就已经执行完；线程池拒绝时撤销计数。
+         */
+        void submitTo(Executor executor) {
+            if (immediateRead && countedAsImmediateRead.compareAndSet(false, true)) {
+                onImmediateReadSubmitted();
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                if (countedAsImmediateRead.compareAndSet(true, false)) {
+                    onImmediateReadDone();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            recordLatency(request, LatencyStage.QUEUE, submitTime);
+            try {
+                response = doRealWork(false, request, cancellationSignal);
+                set(null);
+            } catch (RuntimeException e) {
+                setException(e);
+            }
+        }
+
+        /**
+         * @return 是否使用了 leader 的结果，已经被取消时返回 false。
+         */
+        boolean completeAsFollower(DbResponse leaderResponse) {
+            if (isDone()) {
+                return false;
+            }
+            postResponse(request, leaderResponse, cancellationSignal);
+            set(null);
+            return true;
+        }
+
+        @Override
+        protected void done() {
+            if (countedAsImmediateRead.compareAndSet(true, false)) {
+                onImmediateReadDone();
+            }
+            if (flight != null) {
+                finishFlight(flight, isCancelled() ? null : response);
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "DbWorker-" + namePrefix + "-" + count.incrementAndGet());
+        }
+    }
+
 }
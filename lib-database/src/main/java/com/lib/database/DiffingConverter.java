@@ -0,0 +1,217 @@
+package com.lib.database;
+
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.support.v4.os.CancellationSignal;
+
+import com.lib.database.callback.ICancelableConverter;
+import com.lib.database.callback.IRowMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把查询结果与上一次的结果比较，得到插入、删除、移动和变化的行。行通过 id 列识别，通过版本列判断是否变化，
+ * 只有新插入和版本变化的行才会调用 {@link IRowMapper} 重新生成对象，其他行复用上一次的对象。
+ * 该转换器保存了上一次的结果，不是线程安全的，适合作为 {@link LiveQuery} 的转换器，每个 LiveQuery 使用一个实例。
+ * 查询的 projection 需要包含 id 列和版本列，id 在结果中必须唯一。
+ */
+public class DiffingConverter<T> implements ICancelableConverter<ResultDiff<T>> {
+
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    private final IRowMapper<T> rowMapper;
+    private final String idColumn;
+    private final String versionColumn;
+
+    private boolean hasPrevious;
+    private long[] previousVersions = new long[0];
+    private List<T> previousItems = Collections.emptyList();
+    private Map<Long, Integer> previousPositions = Collections.emptyMap();
+
+    /**
+     * 使用 _id 作为 id 列。
+     */
+    public DiffingConverter(IRowMapper<T> rowMapper, String versionColumn) {
+        this(rowMapper, BaseColumns._ID, versionColumn);
+    }
+
+    /**
+     * @param rowMapper 把一行转换为对象。
+     * @param idColumn 唯一标识一行的列。
+     * @param versionColumn 行内容变化时一定会变化的整数列，例如更新时间。
+     */
+    public DiffingConverter(IRowMapper<T> rowMapper, String idColumn, String versionColumn) {
+        if (rowMapper == null || idColumn == null || versionColumn == null) {
+            throw new IllegalArgumentException("rowMapper, idColumn and versionColumn must not be null");
+        }
+        this.rowMapper = rowMapper;
+        this.idColumn = idColumn;
+        this.versionColumn = versionColumn;
+    }
+
+    @Override
+    public ResultDiff<T> convert(Cursor cursor) {
+        return convert(cursor, null);
+    }
+
+    @Override
+    public ResultDiff<T> convert(Cursor cursor, CancellationSignal signal) {
+        int count = cursor != null ? cursor.getCount() : 0;
+        long[] versions = new long[count];
+        List<T> items = new ArrayList<>(count);
+        Map<Long, Integer> positions = new HashMap<>(count * 2);
+        //新结果中每一行在旧结果中的位置，新插入的行为 -1。
+        int[] oldPositions = new int[count];
+        int[] changed = new int[count];
+        int changedCount = 0;
+        try {
+            if (cursor != null) {
+                int idIndex = cursor.getColumnIndexOrThrow(idColumn);
+                int versionIndex = cursor.getColumnIndexOrThrow(versionColumn);
+                int position = 0;
+                while (cursor.moveToNext() && position < count) {
+                    if (signal != null && position % CANCEL_CHECK_INTERVAL == 0) {
+                        signal.throwIfCanceled();
+                    }
+                    long id = cursor.getLong(idIndex);
+                    long version = cursor.getLong(versionIndex);
+                    Integer oldPosition = previousPositions.get(id);
+                    T item;
+                    if (oldPosition != null && previousVersions[oldPosition] == version) {
+                        item = previousItems.get(oldPosition);
+                    } else {
+                        item = rowMapper.mapRow(cursor);
+                        if (oldPosition != null) {
+                            changed[changedCount++] = position;
+                        }
+                    }
+                    items.add(item);
+                    versions[position] = version;
+                    oldPositions[position] = oldPosition != null ? oldPosition : -1;
+                    positions.put(id, position);
+                    position++;
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        ResultDiff<T> diff = hasPrevious
+                ? buildDiff(items, oldPositions, Arrays.copyOf(changed, changedCount))
+                : new ResultDiff<>(items, true, null, range(items.size()), null, null, null);
+        //全部转换完成后才替换上一次的结果，被取消时保持不变。
+        hasPrevious = true;
+        previousVersions = versions;
+        previousItems = items;
+        previousPositions = positions;
+        return diff;
+    }
+
+    /**
+     * 清除保存的上一次结果，下一次转换的结果视为第一次查询。
+     */
+    public void reset() {
+        hasPrevious = false;
+        previousVersions = new long[0];
+        previousItems = Collections.emptyList();
+        previousPositions = Collections.emptyMap();
+    }
+
+    private ResultDiff<T> buildDiff(List<T> items, int[] oldPositions, int[] changed) {
+        int[] removed = new int[previousItems.size()];
+        int removedCount = 0;
+        boolean[] kept = new boolean[previousItems.size()];
+        for (int oldPosition : oldPositions) {
+            if (oldPosition >= 0) {
+                kept[oldPosition] = true;
+            }
+        }
+        for (int i = 0; i < kept.length; i++) {
+            if (!kept[i]) {
+                removed[removedCount++] = i;
+            }
+        }
+
+        int[] inserted = new int[items.size()];
+        int insertedCount = 0;
+        //保留下来的行在新结果中的位置和在旧结果中的位置。
+        int[] keptNewPositions = new int[items.size()];
+        int[] keptOldPositions = new int[items.size()];
+        int keptCount = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (oldPositions[i] < 0) {
+                inserted[insertedCount++] = i;
+            } else {
+                keptNewPositions[keptCount] = i;
+                keptOldPositions[keptCount] = oldPositions[i];
+                keptCount++;
+            }
+        }
+
+        //旧位置的最长递增子序列中的行相对顺序不变，其余保留的行视为移动。
+        boolean[] inOrder = longestIncreasingSubsequence(keptOldPositions, keptCount);
+        int[] movedFrom = new int[keptCount];
+        int[] movedTo = new int[keptCount];
+        int movedCount = 0;
+        for (int i = 0; i < keptCount; i++) {
+            if (!inOrder[i]) {
+                movedFrom[movedCount] = keptOldPositions[i];
+                movedTo[movedCount] = keptNewPositions[i];
+                movedCount++;
+            }
+        }
+        return new ResultDiff<>(items, false,
+                Arrays.copyOf(removed, removedCount),
+                Arrays.copyOf(inserted, insertedCount),
+                Arrays.copyOf(movedFrom, movedCount),
+                Arrays.copyOf(movedTo, movedCount),
+                changed);
+    }
+
+    /**
+     * @return 标记了 values 前 length 个元素中属于某个最长严格递增子序列的元素。
+     */
+    private static boolean[] longestIncreasingSubsequence(int[] values, int length) {
+        //tails[k] 为长度 k + 1 的递增子序列的最小结尾元素的下标。
+        int[] tails = new int[length];
+        int[] previous = new int[length];
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == size) {
+                size++;
+            }
+        }
+        boolean[] inSequence = new boolean[length];
+        for (int i = size > 0 ? tails[size - 1] : -1; i >= 0; i = previous[i]) {
+            inSequence[i] = true;
+        }
+        return inSequence;
+    }
+
+    private static int[] range(int size) {
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,96 @@
+package com.lib.database;
+
+
+import android.net.Uri;
+
+import com.lib.database.annotation.LatencyStage;
+import com.lib.database.annotation.RequestType;
+
+/**
+ * 某个数据库中某张表、某种请求在某个阶段的耗时快照，时间单位均为微秒，分位数的相对误差不超过 12.5%。
+ */
+public class LatencyStats {
+
+    private final Uri dbUri;
+    private final String tableName;
+    private final int requestType;
+    private final int stage;
+    private final long count;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p95Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    LatencyStats(Uri dbUri, String tableName, int requestType, int stage, LatencyHistogram histogram) {
+        this.dbUri = dbUri;
+        this.tableName = tableName;
+        this.requestType = requestType;
+        this.stage = stage;
+        this.count = histogram.count();
+        this.meanMicros = histogram.mean();
+        this.p50Micros = histogram.percentile(50);
+        this.p95Micros = histogram.percentile(95);
+        this.p99Micros = histogram.percentile(99);
+        this.maxMicros = histogram.max();
+    }
+
+    public Uri getDbUri() {
+        return dbUri;
+    }
+
+    /**
+     * @return 表名，APPLY_BATCH 等不针对单张表的请求返回 null。
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    public @RequestType int getRequestType() {
+        return requestType;
+    }
+
+    public @LatencyStage int getStage() {
+        return stage;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP95Micros() {
+        return p95Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{" +
+                "dbUri=" + dbUri +
+                ", tableName='" + tableName + '\'' +
+                ", requestType=" + requestType +
+                ", stage=" + stage +
+                ", count=" + count +
+                ", mean=" + meanMicros +
+                ", p50=" + p50Micros +
+                ", p95=" + p95Micros +
+                ", p99=" + p99Micros +
+                ", max=" + maxMicros +
+                '}';
+    }
+}
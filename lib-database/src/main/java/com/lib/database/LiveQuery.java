@@ -0,0 +1,221 @@
+package com.lib.database;
+
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.util.Log;
+
+import com.lib.database.annotation.RequestType;
+import com.lib.database.callback.IQueryCallback;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * 监听表的变化并在读线程重新执行查询，结果与上一次 equals 时不回调。
+ * 使用 {@link DiffingConverter} 时只回调有变化的 {@link ResultDiff}。
+ * 两次查询的开始时间至少间隔 throttleMillis，期间的多次变化只会触发一次查询。
+ * 不再需要时调用 {@link #close()} 取消监听。
+ */
+public class LiveQuery<T> implements Closeable {
+
+    private static final String TAG = LiveQuery.class.getSimpleName();
+
+    private final DbWorker worker;
+    private final DbRequest request;
+    private final long throttleMillis;
+    private final IQueryCallback<T> callback;
+    private final ContentObserver observer;
+    private final Runnable queryTask = new Runnable() {
+
+        @Override
+        public void run() {
+            runQuery();
+        }
+    };
+    private final Runnable submitTask = new Runnable() {
+
+        @Override
+        public void run() {
+            submit();
+        }
+    };
+
+    /**
+     * 以下状态由 this 保护。scheduled 表示已经安排了一次查询（等待、排队或正在执行），
+     * dirty 表示查询开始后表又发生了变化。
+     */
+    private boolean scheduled;
+    private boolean dirty;
+    private boolean closed;
+    private long lastRunTime = -1;
+    private Future pendingFuture;
+    private CancellationSignal cancellationSignal;
+
+    private boolean hasValue;
+    private T lastValue;
+
+    LiveQuery(DbWorker worker, DbRequest request, long throttleMillis, IQueryCallback<T> callback) {
+        if (request.getRequestType() != RequestType.QUERY) {
+            throw new IllegalArgumentException("live query only supports QUERY, requestType=" + request.getRequestType());
+        }
+        if (throttleMillis < 0) {
+            throw new IllegalArgumentException("throttleMillis must not be negative, throttleMillis=" + throttleMillis);
+        }
+        this.worker = worker;
+        this.request = request;
+        this.throttleMillis = throttleMillis;
+        this.callback = callback;
+        this.observer = new ContentObserver(null) {
+
+            @Override
+            public void onChange(boolean selfChange) {
+                onTableChanged();
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                //同一个数据库中所有表的 Uri 路径相同，观察者会收到其他表的通知，需要按表名过滤。
+                String tableName = uri != null ? LiveQuery.this.worker.parseTableName(uri) : null;
+                if (tableName == null || LiveQuery.this.request.getTableName() == null
+                        || tableName.equals(LiveQuery.this.request.getTableName())) {
+                    onTableChanged();
+                }
+            }
+        };
+    }
+
+    void start() {
+        worker.registerContentObserver(request.getTableName(), true, observer);
+        requestRun();
+    }
+
+    /**
+     * 立即安排一次查询，不需要等待表发生变化。
+     */
+    public void refresh() {
+        requestRun();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (pendingFuture != null) {
+                pendingFuture.cancel(false);
+                pendingFuture = null;
+            }
+            if (cancellationSignal != null) {
+                cancellationSignal.cancel();
+            }
+        }
+        worker.unregisterContentObserver(observer);
+    }
+
+    private void onTableChanged() {
+        //缓存的失效也依赖通知，先让它失效，避免读到变化前的缓存。
+        worker.invalidateQueryCache(request.getTableName());
+        requestRun();
+    }
+
+    private synchronized void requestRun() {
+        if (closed) {
+            return;
+        }
+        if (scheduled) {
+            dirty = true;
+            return;
+        }
+        scheduled = true;
+        scheduleNext();
+    }
+
+    /**
+     * 按节流间隔安排下一次查询，调用时持有 this。
+     */
+    private void scheduleNext() {
+        long delay = lastRunTime < 0 ? 0 : lastRunTime + throttleMillis - SystemClock.uptimeMillis();
+        if (delay > 0) {
+            pendingFuture = worker.schedule(submitTask, delay);
+        } else {
+            submit();
+        }
+    }
+
+    private synchronized void submit() {
+        if (closed) {
+            return;
+        }
+        pendingFuture = worker.submitQuery(queryTask, request.getPriority());
+    }
+
+    private void runQuery() {
+        CancellationSignal signal;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            dirty = false;
+            lastRunTime = SystemClock.uptimeMillis();
+            signal = new CancellationSignal();
+            cancellationSignal = signal;
+        }
+        try {
+            DbResponse<T> response = worker.doSync(request, signal);
+            deliver(response.getValue());
+        } catch (OperationCanceledException e) {
+            //已关闭。
+        } catch (RuntimeException e) {
+            Log.e(TAG, "runQuery, query failed, request table=" + request.getTableName(), e);
+        } finally {
+            synchronized (this) {
+                cancellationSignal = null;
+                if (dirty && !closed) {
+                    scheduleNext();
+                } else {
+                    scheduled = false;
+                    pendingFuture = null;
+                }
+            }
+        }
+    }
+
+    private void deliver(final T value) {
+        synchronized (this) {
+            if (hasValue && (lastValue == null ? value == null : lastValue.equals(value))) {
+                return;
+            }
+            if (hasValue && value instanceof ResultDiff && ((ResultDiff) value).isEmpty()) {
+                return;
+            }
+            hasValue = true;
+            lastValue = value;
+        }
+        Executor callbackExecutor = worker.getCallbackExecutor(request);
+        Runnable runnable = new Runnable() {
+
+            @Override
+            public void run() {
+                if (!isClosed()) {
+                    callback.onQueryCompleted(value);
+                }
+            }
+        };
+        if (callbackExecutor != null) {
+            callbackExecutor.execute(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+}
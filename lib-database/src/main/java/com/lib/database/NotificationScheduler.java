@@ -0,0 +1,265 @@
+package com.lib.database;
+
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并同一张表的变化通知：事务中的变化先记录在当前线程中，提交后才进入等待通知的队列，回滚时丢弃。
+ * 每次提交都把通知推迟到 delayMillis 之后，但从第一次提交起最多等待 {@link #MAX_DELAY_MULTIPLIER} 倍的 delayMillis，
+ * 持续写入时观察者仍然能定期收到通知。通知的 Uri 中带有操作类型和变化的行 id，见 {@link ChangeInfo}。
+ */
+class NotificationScheduler {
+
+    /**
+     * 单次通知最多携带的行 id 数，超过后不再携带 id，观察者需要刷新整张表。
+     */
+    static final int MAX_ROW_IDS = 100;
+    /**
+     * 连续提交时，通知最多推迟 delayMillis 的倍数。
+     */
+    static final int MAX_DELAY_MULTIPLIER = 4;
+
+    private final ContentResolver resolver;
+    private final long delayMillis;
+    /**
+     * 已经提交、等待通知的变化。
+     */
+    private final Map<Uri, PendingChange> pendingChanges = new HashMap<>();
+    /**
+     * 当前线程的事务中还没有提交的变化。
+     */
+    private final ThreadLocal<Map<Uri, PendingChange>> transactionChanges = new ThreadLocal<>();
+    private ScheduledExecutorService scheduler;
+
+    NotificationScheduler(ContentResolver resolver, long delayMillis) {
+        this.resolver = resolver;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * 记录当前线程的事务中的变化，提交后才会通知；不在事务中时直接安排通知，不会留在当前线程中。
+     * @param rowIds 变化的行 id，为 null 表示未知。
+     */
+    void add(Uri uri, int operation, long[] rowIds, boolean inTransaction) {
+        if (!inTransaction) {
+            PendingChange change = new PendingChange(uri);
+            change.add(operation, rowIds);
+            schedule(Collections.singletonList(change));
+            return;
+        }
+        Map<Uri, PendingChange> changes = transactionChanges.get();
+        if (changes == null) {
+            changes = new HashMap<>();
+            transactionChanges.set(changes);
+        }
+        PendingChange change = changes.get(uri);
+        if (change == null) {
+            change = new PendingChange(uri);
+            changes.put(uri, change);
+        }
+        change.add(operation, rowIds);
+    }
+
+    /**
+     * 当前线程的事务提交后调用，为事务中的变化安排通知。
+     */
+    void onCommitTransaction() {
+        Map<Uri, PendingChange> changes = transactionChanges.get();
+        if (changes == null || changes.isEmpty()) {
+            return;
+        }
+        transactionChanges.set(null);
+        schedule(changes.values());
+    }
+
+    /**
+     * 已经提交的变化合并到等待通知的队列中，没有延迟时立即通知。
+     */
+    private void schedule(Collection<PendingChange> changes) {
+        if (delayMillis <= 0) {
+            for (PendingChange change : changes) {
+                resolver.notifyChange(change.buildNotifyUri(), null, false);
+            }
+            return;
+        }
+        long now = uptimeMillis();
+        synchronized (pendingChanges) {
+            for (PendingChange committed : changes) {
+                PendingChange change = pendingChanges.get(committed.uri);
+                if (change == null) {
+                    committed.firstCommitTime = now;
+                    pendingChanges.put(committed.uri, committed);
+                    change = committed;
+                } else {
+                    change.merge(committed);
+                }
+                change.dueTime = Math.min(now + delayMillis, change.firstCommitTime + delayMillis * MAX_DELAY_MULTIPLIER);
+                if (!change.scheduled) {
+                    change.scheduled = true;
+                    schedule(change, delayMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前线程的事务回滚后调用，丢弃事务中的变化。
+     */
+    void onRollbackTransaction() {
+        transactionChanges.set(null);
+    }
+
+    /**
+     * 立即发出所有已经提交、还没有发出的通知。
+     */
+    void flushNow() {
+        List<PendingChange> changes;
+        synchronized (pendingChanges) {
+            if (pendingChanges.isEmpty()) {
+                return;
+            }
+            changes = new ArrayList<>(pendingChanges.values());
+            pendingChanges.clear();
+        }
+        for (PendingChange change : changes) {
+            resolver.notifyChange(change.buildNotifyUri(), null, false);
+        }
+    }
+
+    private void schedule(final PendingChange change, long delay) {
+        getScheduler().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                flush(change);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 到期前又有新的提交时，按新的到期时间重新安排。
+     */
+    private void flush(PendingChange change) {
+        synchronized (pendingChanges) {
+            if (pendingChanges.get(change.uri) != change) {
+                //已经被 flushNow 发出。
+                return;
+            }
+            long remaining = change.dueTime - uptimeMillis();
+            if (remaining > 0) {
+                schedule(change, remaining);
+                return;
+            }
+            pendingChanges.remove(change.uri);
+        }
+        resolver.notifyChange(change.buildNotifyUri(), null, false);
+    }
+
+    private static long uptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NotificationScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    private static class PendingChange {
+
+        final Uri uri;
+        int operations;
+        long[] rowIds = new long[8];
+        int rowIdCount;
+        boolean rowIdsUnknown;
+        boolean scheduled;
+        long firstCommitTime;
+        long dueTime;
+
+        PendingChange(Uri uri) {
+            this.uri = uri;
+        }
+
+        void add(int operation, long[] ids) {
+            if (operation == 0) {
+                //未知的操作，通知中不再携带操作类型。
+                operations = -1;
+            } else if (operations != -1) {
+                operations |= operation;
+            }
+            addRowIds(ids, ids != null ? ids.length : 0);
+        }
+
+        /**
+         * 合并同一个 Uri 后提交的变化。
+         */
+        void merge(PendingChange other) {
+            if (other.operations == -1) {
+                operations = -1;
+            } else if (operations != -1) {
+                operations |= other.operations;
+            }
+            addRowIds(other.rowIdsUnknown ? null : other.rowIds, other.rowIdCount);
+        }
+
+        private void addRowIds(long[] ids, int length) {
+            if (rowIdsUnknown) {
+                return;
+            }
+            if (ids == null || rowIdCount + length > MAX_ROW_IDS) {
+                rowIdsUnknown = true;
+                rowIds = null;
+                return;
+            }
+            if (rowIdCount + length > rowIds.length) {
+                long[] newRowIds = new long[Math.max(rowIds.length * 2, rowIdCount + length)];
+                System.arraycopy(rowIds, 0, newRowIds, 0, rowIdCount);
+                rowIds = newRowIds;
+            }
+            System.arraycopy(ids, 0, rowIds, rowIdCount, length);
+            rowIdCount += length;
+        }
+
+        Uri buildNotifyUri() {
+            Uri.Builder builder = uri.buildUpon();
+            if (operations > 0) {
+                builder.appendQueryParameter(Constant.CHANGE_OPERATIONS, String.valueOf(operations));
+            }
+            if (!rowIdsUnknown) {
+                //同一行可能在窗口内变化多次，排序后去重。
+                Arrays.sort(rowIds, 0, rowIdCount);
+                StringBuilder ids = new StringBuilder(rowIdCount * 4);
+                for (int i = 0; i < rowIdCount; i++) {
+                    if (i > 0 && rowIds[i] == rowIds[i - 1]) {
+                        continue;
+                    }
+                    ids.append(ids.length() > 0 ? "," : "").append(rowIds[i]);
+                }
+                builder.appendQueryParameter(Constant.CHANGED_IDS, ids.toString());
+            }
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lib.database;
+
+
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.support.v4.os.CancellationSignal;
+
+import com.lib.database.annotation.RequestType;
+import com.lib.database.callback.IQueryCallback;
+
+import java.util.concurrent.Future;
+
+/**
+ * 编译好的查询模板，通过 {@link DbWorker#prepareQuery} 创建，可以在多个线程中重复执行。
+ * SQL 在创建时用 SQLiteQueryBuilder 生成一次，执行时作为 rawQuery 发给 Provider，
+ * 不再构造带 groupBy、having、limit 参数的 Uri，Provider 也不再解析这些参数和创建 SQLiteQueryBuilder；
+ * SQL 字符串不变，SQLite 连接会复用已经编译的语句。适合高频的点查。
+ * 查询结果缓存、合并相同查询和耗时统计与普通请求相同。
+ * SQL 中直接使用模板的表名，不经过 {@link SimpleSQLiteProvider#getDatabaseTableName} 的映射，
+ * Provider 重写了该方法、把 Uri 中的表名映射到其他表时，模板中需要使用映射后的真实表名。
+ */
+public class PreparedQuery<T> {
+
+    private final DbWorker worker;
+    private final DbRequest template;
+    private final String sql;
+    private final Uri uri;
+
+    PreparedQuery(DbWorker worker, DbRequest template) {
+        if (template.getRequestType() != RequestType.QUERY) {
+            throw new IllegalArgumentException("only query requests can be prepared, requestType=" + template.getRequestType());
+        }
+        this.worker = worker;
+        this.template = template;
+        if (template.isRawQuery()) {
+            this.sql = template.getSelection();
+        } else {
+            this.sql = SQLiteQueryBuilder.buildQueryString(false, template.getTableName(), template.getProjectionArray(),
+                    template.getSelection(), template.getGroupBy(), template.getHaving(), template.getSortOrder(), template.getLimit());
+        }
+        this.uri = worker.getTableUri(template.getTableName()).buildUpon()
+                .appendQueryParameter(Constant.RAW_QUERY, "true")
+                .build();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    Uri getUri() {
+        return uri;
+    }
+
+    /**
+     * 同步执行。
+     * @param selectionArgs 绑定到 SQL 中 ? 的参数，直接引用，执行完成前不要修改。
+     */
+    public T execute(String... selectionArgs) {
+        return execute(selectionArgs, null);
+    }
+
+    /**
+     * 可以从其他线程取消的同步执行。
+     * @throws android.support.v4.os.OperationCanceledException 被取消。
+     */
+    public T execute(String[] selectionArgs, CancellationSignal cancellationSignal) {
+        DbRequest request = DbRequest.obtainPrepared(template, this, selectionArgs, null);
+        try {
+            DbResponse<T> response = worker.doSync(request, cancellationSignal);
+            T value = response.getValue();
+            response.recycle();
+            return value;
+        } finally {
+            request.recycle();
+        }
+    }
+
+    /**
+     * 异步执行，回调线程和优先级由模板决定，取消返回的 Future 与 {@link DbWorker#doAsync} 相同。
+     */
+    public Future executeAsync(String[] selectionArgs, IQueryCallback<T> callback) {
+        return worker.doAsync(DbRequest.obtainPrepared(template, this, selectionArgs, callback));
+    }
+}
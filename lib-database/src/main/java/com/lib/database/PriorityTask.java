@@ -0,0 +1,44 @@
+package com.lib.database;
+
+
+import android.support.v4.os.CancellationSignal;
+
+import com.lib.database.annotation.Priority;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 带优先级的任务，由 {@link PriorityTaskQueue} 按优先级和等待时间排序。
+ * 取消任务时同时取消 cancellationSignal，正在执行的查询和转换会尽快停止。
+ */
+class PriorityTask<V> extends FutureTask<V> {
+
+    final @Priority int priority;
+    final CancellationSignal cancellationSignal;
+
+    PriorityTask(Runnable runnable, @Priority int priority) {
+        this(runnable, priority, null);
+    }
+
+    PriorityTask(Runnable runnable, @Priority int priority, CancellationSignal cancellationSignal) {
+        super(runnable, null);
+        this.priority = priority;
+        this.cancellationSignal = cancellationSignal;
+    }
+
+    PriorityTask(Callable<V> callable, @Priority int priority, CancellationSignal cancellationSignal) {
+        super(callable);
+        this.priority = priority;
+        this.cancellationSignal = cancellationSignal;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled && cancellationSignal != null) {
+            cancellationSignal.cancel();
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,268 @@
+package com.lib.database;
+
+
+import android.os.SystemClock;
+
+import com.lib.database.annotation.Priority;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按 {@link Priority} 分级的任务队列，同一级内先进先出。
+ * 为避免低优先级的任务一直得不到执行，任务每等待 {@link #AGING_MILLIS} 就被当作高一级的任务，
+ * 不是 {@link PriorityTask} 的任务按 NORMAL 处理。
+ */
+class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    static final long AGING_MILLIS = 1000;
+
+    private static final int LEVEL_COUNT = Priority.BACKGROUND + 1;
+
+    private final ArrayDeque<Entry>[] levels;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int count;
+
+    PriorityTaskQueue() {
+        levels = new ArrayDeque[LEVEL_COUNT];
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            levels[i] = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        int priority = runnable instanceof PriorityTask ? ((PriorityTask) runnable).priority : Priority.NORMAL;
+        priority = Math.max(Priority.IMMEDIATE, Math.min(Priority.BACKGROUND, priority));
+        lock.lock();
+        try {
+            levels[priority].offerLast(new Entry(runnable, SystemClock.uptimeMillis()));
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public void put(Runnable runnable) {
+        offer(runnable);
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            int level = selectLevel();
+            return level < 0 ? null : levels[level].peekFirst().runnable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (ArrayDeque<Entry> level : levels) {
+                Iterator<Entry> iterator = level.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().runnable.equals(o)) {
+                        iterator.remove();
+                        count--;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && count > 0) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 返回当前所有任务的快照，通过迭代器删除会从队列中删除对应的任务。
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ArrayDeque<Entry> level : levels) {
+                for (Entry entry : level) {
+                    snapshot.add(entry.runnable);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Runnable> iterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+
+            private Runnable current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                current = iterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                PriorityTaskQueue.this.remove(current);
+                current = null;
+            }
+        };
+    }
+
+    private Runnable dequeue() {
+        int level = selectLevel();
+        if (level < 0) {
+            return null;
+        }
+        count--;
+        return levels[level].pollFirst().runnable;
+    }
+
+    /**
+     * 比较每一级队头任务的有效优先级（原优先级减去已老化的级数），相同时先入队的优先。
+     * @return 下一个要执行的任务所在的级别，队列为空时返回 -1。
+     */
+    private int selectLevel() {
+        long now = SystemClock.uptimeMillis();
+        int selected = -1;
+        long selectedEffective = Long.MAX_VALUE;
+        long selectedTime = Long.MAX_VALUE;
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            Entry head = levels[i].peekFirst();
+            if (head == null) {
+                continue;
+            }
+            long effective = i - (now - head.enqueueTime) / AGING_MILLIS;
+            if (effective < selectedEffective || (effective == selectedEffective && head.enqueueTime < selectedTime)) {
+                selected = i;
+                selectedEffective = effective;
+                selectedTime = head.enqueueTime;
+            }
+        }
+        return selected;
+    }
+
+    private static class Entry {
+
+        final Runnable runnable;
+        final long enqueueTime;
+
+        Entry(Runnable runnable, long enqueueTime) {
+            this.runnable = runnable;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.lib.database;
+
+
+import android.util.LruCache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存转换后的查询结果。每张表维护一个版本号，表发生变化时版本号加一，版本号不一致的缓存视为失效。
+ * 缓存的结果会被多个调用方共享，调用方不应修改它。
+ */
+public class QueryCache {
+
+    /**
+     * 计算缓存结果的权重，缓存总权重超过上限时按 LRU 淘汰。
+     */
+    public interface Weigher {
+        int weigh(Object value);
+    }
+
+    private static final Weigher DEFAULT_WEIGHER = new Weigher() {
+
+        @Override
+        public int weigh(Object value) {
+            if (value instanceof Collection) {
+                return Math.max(1, ((Collection) value).size());
+            }
+            if (value instanceof Map) {
+                return Math.max(1, ((Map) value).size());
+            }
+            return 1;
+        }
+    };
+
+    private final LruCache<QueryKey, Entry> cache;
+    private final Weigher weigher;
+    private final ConcurrentHashMap<String, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * 整个数据库的版本号，无法确定变化的表时使所有缓存失效。
+     */
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    QueryCache(int maxWeight, Weigher weigher) {
+        this.weigher = weigher != null ? weigher : DEFAULT_WEIGHER;
+        cache = new LruCache<QueryKey, Entry>(maxWeight) {
+
+            @Override
+            protected int sizeOf(QueryKey key, Entry entry) {
+                return entry.weight;
+            }
+        };
+    }
+
+    /**
+     * @return 缓存的结果，未命中或已失效时返回 null。
+     */
+    Object get(QueryKey key) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.version == version(key.getTableName())) {
+            hitCount.incrementAndGet();
+            return entry.value;
+        }
+        if (entry != null) {
+            cache.remove(key);
+            invalidationCount.incrementAndGet();
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param version 开始查询前通过 {@link #version} 得到的版本号，查询期间表发生过变化时不缓存结果。
+     */
+    void put(QueryKey key, Object value, long version) {
+        if (value == null || version != version(key.getTableName())) {
+            return;
+        }
+        cache.put(key, new Entry(value, version, weigher.weigh(value)));
+    }
+
+    long version(String tableName) {
+        return globalVersion.get() + getTableVersion(tableName).get();
+    }
+
+    void invalidate(String tableName) {
+        if (tableName == null) {
+            invalidateAll();
+        } else {
+            getTableVersion(tableName).incrementAndGet();
+        }
+    }
+
+    void invalidateAll() {
+        globalVersion.incrementAndGet();
+    }
+
+    private AtomicLong getTableVersion(String tableName) {
+        String key = tableName != null ? tableName : "";
+        AtomicLong version = tableVersions.get(key);
+        if (version == null) {
+            AtomicLong newVersion = new AtomicLong();
+            version = tableVersions.putIfAbsent(key, newVersion);
+            if (version == null) {
+                version = newVersion;
+            }
+        }
+        return version;
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    public float hitRate() {
+        long hit = hitCount.get();
+        long total = hit + missCount.get();
+        return total == 0 ? 0 : (float) hit / total;
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    public long invalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * @return 当前缓存的总权重。
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{" +
+                "hitCount=" + hitCount() +
+                ", missCount=" + missCount() +
+                ", hitRate=" + hitRate() +
+                ", evictionCount=" + evictionCount() +
+                ", invalidationCount=" + invalidationCount() +
+                ", size=" + size() +
+                ", maxSize=" + maxSize() +
+                '}';
+    }
+
+    private static class Entry {
+
+        final Object value;
+        final long version;
+        final int weight;
+
+        Entry(Object value, long version, int weight) {
+            this.value = value;
+            this.version = version;
+            this.weight = weight;
+        }
+    }
+}
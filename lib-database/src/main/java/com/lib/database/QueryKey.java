@@ -0,0 +1,95 @@
+package com.lib.database;
+
+
+import com.lib.database.callback.IConverter;
+
+import java.util.Arrays;
+
+/**
+ * 查询请求的规范化形式，参数完全相同、使用同一个转换器对象的查询得到相同的 key。
+ * 转换器按对象比较而不是按类比较：同一个类的两个实例可能持有不同的状态，转换出不同的结果。
+ */
+class QueryKey {
+
+    private static final String[] EMPTY = new String[0];
+
+    private final String tableName;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final String groupBy;
+    private final String having;
+    private final String sortOrder;
+    private final String limit;
+    private final boolean rawQuery;
+    private final IConverter converter;
+    private final int hashCode;
+
+    QueryKey(DbRequest request) {
+        this.tableName = request.getTableName();
+        //请求执行期间数组不会被修改，但 key 会留在缓存中，因此复制一份。
+        this.projection = copy(request.getProjectionArray());
+        this.selection = request.getSelection();
+        this.selectionArgs = copy(request.getSelectionArgsArray());
+        this.groupBy = request.getGroupBy();
+        this.having = request.getHaving();
+        this.sortOrder = request.getSortOrder();
+        this.limit = request.getLimit();
+        this.rawQuery = request.isRawQuery();
+        this.converter = request.getIConverter();
+        //转换器可能覆盖了 equals/hashCode，这里只按对象本身比较。
+        this.hashCode = 31 * Arrays.deepHashCode(new Object[]{tableName, projection, selection, selectionArgs,
+                groupBy, having, sortOrder, limit, rawQuery}) + System.identityHashCode(converter);
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    private static String[] copy(String[] array) {
+        return array != null && array.length > 0 ? array.clone() : EMPTY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QueryKey)) {
+            return false;
+        }
+        QueryKey other = (QueryKey) o;
+        return hashCode == other.hashCode
+                && rawQuery == other.rawQuery
+                && converter == other.converter
+                && equals(tableName, other.tableName)
+                && equals(selection, other.selection)
+                && equals(sortOrder, other.sortOrder)
+                && equals(limit, other.limit)
+                && equals(groupBy, other.groupBy)
+                && equals(having, other.having)
+                && Arrays.equals(projection, other.projection)
+                && Arrays.equals(selectionArgs, other.selectionArgs);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryKey{" +
+                "tableName='" + tableName + '\'' +
+                ", projection=" + Arrays.toString(projection) +
+                ", selection='" + selection + '\'' +
+                ", selectionArgs=" + Arrays.toString(selectionArgs) +
+                ", sortOrder='" + sortOrder + '\'' +
+                ", limit='" + limit + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,91 @@
+package com.lib.database;
+
+
+import java.util.List;
+
+/**
+ * 两次查询结果之间的差异，由 {@link DiffingConverter} 生成。
+ * 删除的位置是旧结果中的位置，插入、变化的位置是新结果中的位置，均为升序；
+ * 移动的行按新位置升序排列，只包含相对顺序发生变化的行。返回的数组不应被修改。
+ */
+public class ResultDiff<T> {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final List<T> items;
+    private final boolean initial;
+    private final int[] removedPositions;
+    private final int[] insertedPositions;
+    private final int[] movedFromPositions;
+    private final int[] movedToPositions;
+    private final int[] changedPositions;
+
+    ResultDiff(List<T> items, boolean initial, int[] removedPositions, int[] insertedPositions,
+               int[] movedFromPositions, int[] movedToPositions, int[] changedPositions) {
+        this.items = items;
+        this.initial = initial;
+        this.removedPositions = nonNull(removedPositions);
+        this.insertedPositions = nonNull(insertedPositions);
+        this.movedFromPositions = nonNull(movedFromPositions);
+        this.movedToPositions = nonNull(movedToPositions);
+        this.changedPositions = nonNull(changedPositions);
+    }
+
+    private static int[] nonNull(int[] positions) {
+        return positions != null ? positions : EMPTY;
+    }
+
+    /**
+     * @return 新的完整结果，没有变化的行复用上一次的对象。
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return 是否是第一次查询的结果，此时所有行都算作插入。
+     */
+    public boolean isInitial() {
+        return initial;
+    }
+
+    public int[] getRemovedPositions() {
+        return removedPositions;
+    }
+
+    public int[] getInsertedPositions() {
+        return insertedPositions;
+    }
+
+    public int[] getMovedFromPositions() {
+        return movedFromPositions;
+    }
+
+    public int[] getMovedToPositions() {
+        return movedToPositions;
+    }
+
+    public int[] getChangedPositions() {
+        return changedPositions;
+    }
+
+    /**
+     * @return 与上一次结果相比没有任何变化。
+     */
+    public boolean isEmpty() {
+        return !initial && removedPositions.length == 0 && insertedPositions.length == 0
+                && movedFromPositions.length == 0 && changedPositions.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultDiff{" +
+                "size=" + items.size() +
+                ", initial=" + initial +
+                ", removed=" + removedPositions.length +
+                ", inserted=" + insertedPositions.length +
+                ", moved=" + movedFromPositions.length +
+                ", changed=" + changedPositions.length +
+                '}';
+    }
+}
@@ -0,0 +1,53 @@
+package com.lib.database;
+
+
+import com.lib.database.callback.IConverter;
+import com.lib.database.callback.IRowMapper;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 获取编译时为 {@link com.lib.database.annotation.RowBean} 生成的 RowMapper。
+ * 生成的类可以直接 new，这里只是按类名查找一次，方便在泛型代码中使用。
+ */
+public class RowMappers {
+
+    static final String SUFFIX = "_RowMapper";
+
+    private static final ConcurrentHashMap<Class, Class> MAPPER_CLASSES = new ConcurrentHashMap<>();
+
+    private RowMappers() {}
+
+    /**
+     * 生成的 RowMapper 没有状态，可以在多个线程和多次查询中共享。查询缓存和合并相同查询按转换器对象比较，
+     * 应该保存一个实例重复使用，不要每次查询都创建新的实例。
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> IRowMapper<T> newMapper(Class<T> beanClass) {
+        return (IRowMapper<T>) newInstance(beanClass);
+    }
+
+    /**
+     * 与 {@link #newMapper} 相同，返回的实例应该保存下来在每次查询中重复使用。
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> IConverter<List<T>> newListConverter(Class<T> beanClass) {
+        return (IConverter<List<T>>) newInstance(beanClass);
+    }
+
+    private static Object newInstance(Class beanClass) {
+        Class mapperClass = MAPPER_CLASSES.get(beanClass);
+        try {
+            if (mapperClass == null) {
+                mapperClass = Class.forName(beanClass.getName() + SUFFIX, true, beanClass.getClassLoader());
+                MAPPER_CLASSES.put(beanClass, mapperClass);
+            }
+            return mapperClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException(beanClass + " is not annotated with @RowBean", e);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("can not create mapper for " + beanClass, e);
+        }
+    }
+}
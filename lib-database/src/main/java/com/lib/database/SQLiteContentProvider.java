@@ -1,9 +1,9 @@
 package com.lib.database;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentProviderOperation;
 import android.content.ContentProviderResult;
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
@@ -11,29 +11,71 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
+import com.lib.database.annotation.BatchAtomicity;
+import com.lib.database.annotation.Durability;
+import com.lib.database.callback.ISlowQueryListener;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class SQLiteContentProvider extends ContentProvider {
 
     private static final String TAG = "SQLiteContentProvider";
 
     private SQLiteOpenHelper mOpenHelper;
-    private Set<Uri> mChangedUris;
+    private NotificationScheduler mNotificationScheduler;
+    private BlobStore mBlobStore;
+    private CacheEvictor mCacheEvictor;
+    private SlowQueryLog mSlowQueryLog;
     protected SQLiteDatabase mDb;
+    private DbConfig mConfig;
+    private SQLiteDatabase mConfiguredDb;
     private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<>();
+    private final Map<String, Boolean> mReplaceConflictTables = new ConcurrentHashMap<>();
     private static final int SLEEP_AFTER_YIELD_DELAY = 4000;
-    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 2000;
+    static final int MAX_OPERATIONS_PER_YIELD_POINT = 2000;
+    private static final int MIN_OPERATIONS_PER_CHUNK = 16;
+    private static final int INITIAL_OPERATIONS_PER_CHUNK = 500;
+    private volatile int mBatchChunkSize = INITIAL_OPERATIONS_PER_CHUNK;
 
     @Override
     public boolean onCreate() {
         Context context = getContext();
         mOpenHelper = getDatabaseHelper(context);
-        mChangedUris = new HashSet<>();
+        mConfig = getDbConfig();
+        mNotificationScheduler = new NotificationScheduler(context.getContentResolver(), mConfig.getNotifyDelayMillis());
+        if (mConfig.getBlobOffloadThreshold() > 0) {
+            String name = mOpenHelper.getDatabaseName();
+            if (name != null) {
+                File directory = new File(context.getDatabasePath(name).getPath() + "-blobs");
+                mBlobStore = new BlobStore(directory, mConfig.getBlobOffloadThreshold(), mConfig.getDurability() != Durability.OFF);
+            } else {
+                Log.w(TAG, "onCreate, in-memory database does not support blob offload");
+            }
+        }
+        if (!mConfig.getBoundedTables().isEmpty()) {
+            mCacheEvictor = new CacheEvictor(this, mConfig.getBoundedTables());
+        }
+        if (mConfig.getSlowQueryThresholdMillis() > 0) {
+            mSlowQueryLog = new SlowQueryLog(this, mConfig.getSlowQueryThresholdMillis(), mConfig.getApprovedIndexes());
+        }
         return true;
     }
 
@@ -45,14 +87,15 @@ public abstract class SQLiteContentProvider extends ContentProvider {
         }
         boolean applyingBatch = applyingBatch();
         if (!applyingBatch) {
+            boolean successful = false;
             mDb.beginTransaction();
             try {
                 result = onInsert(mDb, uri, values);
                 mDb.setTransactionSuccessful();
+                successful = true;
             } finally {
-                mDb.endTransaction();
+                endTransaction(successful);
             }
-            onEndTransaction();
         } else {
             result = onInsert(mDb, uri, values);
         }
@@ -64,19 +107,17 @@ public abstract class SQLiteContentProvider extends ContentProvider {
         if (!invalidSQLiteDatabase()) {
             return 0;
         }
-        int numValues = values.length;
+        int count;
+        boolean successful = false;
         mDb.beginTransaction();
         try {
-            for (int i = 0; i < numValues; i++) {
-                Uri result = onInsert(mDb, uri, values[i]);
-                mDb.yieldIfContendedSafely();
-            }
+            count = onBulkInsert(mDb, uri, values);
             mDb.setTransactionSuccessful();
+            successful = true;
         } finally {
-            mDb.endTransaction();
+            endTransaction(successful);
         }
-        onEndTransaction();
-        return numValues;
+        return count;
     }
 
     @Override
@@ -87,15 +128,15 @@ public abstract class SQLiteContentProvider extends ContentProvider {
         int count = 0;
         boolean applyingBatch = applyingBatch();
         if (!applyingBatch) {
+            boolean successful = false;
             mDb.beginTransaction();
             try {
                 count = onUpdate(mDb, uri, values, selection, selectionArgs);
                 mDb.setTransactionSuccessful();
+                successful = true;
             } finally {
-                mDb.endTransaction();
+                endTransaction(successful);
             }
-
-            onEndTransaction();
         } else {
             count = onUpdate(mDb, uri, values, selection, selectionArgs);
         }
@@ -111,15 +152,15 @@ public abstract class SQLiteContentProvider extends ContentProvider {
         }
         boolean applyingBatch = applyingBatch();
         if (!applyingBatch) {
+            boolean successful = false;
             mDb.beginTransaction();
             try {
                 count = onDeleted(mDb, uri, selection, selectionArgs);
                 mDb.setTransactionSuccessful();
+                successful = true;
             } finally {
-                mDb.endTransaction();
+                endTransaction(successful);
             }
-
-            onEndTransaction();
         } else {
             count = onDeleted(mDb, uri, selection, selectionArgs);
         }
@@ -135,59 +176,261 @@ public abstract class SQLiteContentProvider extends ContentProvider {
         return onQuery(mDb, uri, projection, selection, selectionArgs, sortOrder);
     }
 
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        if (!invalidSQLiteDatabase(true)) {
+            return null;
+        }
+        return onQuery(mDb, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+    }
+
+    /**
+     * 只读打开转存的 BLOB 文件，Uri 为数据库的 Uri 加上 {@link Constant#BLOB} 参数。
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        String hash = uri.getQueryParameter(Constant.BLOB);
+        if (mBlobStore == null || !BlobStore.isValidHash(hash)) {
+            throw new FileNotFoundException("no blob for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("blob files are read-only, mode=" + mode);
+        }
+        return ParcelFileDescriptor.open(mBlobStore.getFile(hash), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * 与 {@link #applyBatch(ArrayList, int)} 使用 {@link BatchAtomicity#PER_CHUNK} 相同，
+     * 操作数没有达到 yield 点上限时与原来一样在一个事务中执行。
+     */
     @NonNull
     @Override
     public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
-        int ypCount = 0;
-        int opCount = 0;
+        return applyBatch(operations, BatchAtomicity.PER_CHUNK);
+    }
+
+    /**
+     * 所有分块共用同一个结果数组，反向引用的下标始终是在整个列表中的位置，跨分块时仍然正确。
+     * 分块只在两个操作之间提交；调用方标记了 yield 点时只在这些位置提交，不会拆开调用方的一组操作，
+     * 此时与系统的实现一样，两个 yield 点之间的操作数不能达到 {@link #MAX_OPERATIONS_PER_YIELD_POINT}，
+     * 否则在执行任何操作之前抛出 OperationApplicationException，这样每个事务的操作数都有上限。
+     */
+    @NonNull
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations,
+                                              @BatchAtomicity int atomicity) throws OperationApplicationException {
         if (!invalidSQLiteDatabase()) {
             return new ContentProviderResult[0];
         }
+        final int numOperations = operations.size();
+        if (atomicity == BatchAtomicity.PER_CHUNK) {
+            checkYieldPointSpacing(operations);
+        }
+        final boolean chunked = atomicity == BatchAtomicity.PER_CHUNK && numOperations >= MAX_OPERATIONS_PER_YIELD_POINT;
+        final boolean hasYieldPoints = chunked && hasYieldPoints(operations);
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        int chunkSize = mBatchChunkSize;
+        int chunkStart = 0;
+        int ypCount = 0;
+        long chunkStartNanos = System.nanoTime();
+        boolean successful = false;
         mDb.beginTransaction();
         try {
             mApplyingBatch.set(true);
-            final int numOperations = operations.size();
-            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
             for (int i = 0; i < numOperations; i++) {
-                if (++opCount >= MAX_OPERATIONS_PER_YIELD_POINT) {
-                    throw new OperationApplicationException(
-                            "Too many content provider operations between yield points. "
-                                    + "The maximum number of operations per yield point is "
-                                    + MAX_OPERATIONS_PER_YIELD_POINT, ypCount);
-                }
                 final ContentProviderOperation operation = operations.get(i);
-                if (i > 0 && operation.isYieldAllowed()) {
-                    opCount = 0;
+                if (chunked && i - chunkStart >= chunkSize && (!hasYieldPoints || operation.isYieldAllowed())) {
+                    mDb.setTransactionSuccessful();
+                    mDb.endTransaction();
+                    onEndTransaction();
+                    ypCount++;
+                    chunkSize = tuneChunkSize(i - chunkStart, System.nanoTime() - chunkStartNanos);
+                    mDb.beginTransaction();
+                    chunkStart = i;
+                    chunkStartNanos = System.nanoTime();
+                } else if (i > 0 && operation.isYieldAllowed() && atomicity == BatchAtomicity.PER_CHUNK) {
                     if (mDb.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY)) {
+                        //yield 时已经提交了之前的操作。
+                        mNotificationScheduler.onCommitTransaction();
                         ypCount++;
+                        chunkStart = i;
+                        chunkStartNanos = System.nanoTime();
                     }
                 }
                 results[i] = operation.apply(this, results, i);
             }
             mDb.setTransactionSuccessful();
+            successful = true;
             return results;
+        } catch (OperationApplicationException e) {
+            if (ypCount == 0) {
+                throw e;
+            }
+            throw wrapBatchFailure(e, ypCount);
+        } catch (RuntimeException e) {
+            if (ypCount == 0) {
+                throw e;
+            }
+            throw wrapBatchFailure(e, ypCount);
         } finally {
             mApplyingBatch.set(false);
+            endTransaction(successful);
+        }
+    }
+
+    /**
+     * 之前的分块已经提交，告诉调用方成功的 yield 点数量。
+     */
+    private static OperationApplicationException wrapBatchFailure(Exception e, int ypCount) {
+        OperationApplicationException exception = new OperationApplicationException(e.getMessage(), ypCount);
+        exception.initCause(e);
+        return exception;
+    }
+
+    private static void checkYieldPointSpacing(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (!hasYieldPoints(operations)) {
+            //没有 yield 点时按操作数和耗时自动分块。
+            return;
+        }
+        int opCount = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            if (i > 0 && operations.get(i).isYieldAllowed()) {
+                opCount = 0;
+            }
+            if (++opCount >= MAX_OPERATIONS_PER_YIELD_POINT) {
+                throw new OperationApplicationException(
+                        "Too many content provider operations between yield points. "
+                                + "The maximum number of operations per yield point is "
+                                + MAX_OPERATIONS_PER_YIELD_POINT, 0);
+            }
+        }
+    }
+
+    private static boolean hasYieldPoints(ArrayList<ContentProviderOperation> operations) {
+        for (int i = 1; i < operations.size(); i++) {
+            if (operations.get(i).isYieldAllowed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 根据刚提交的分块中每个操作的平均耗时，计算在目标时间内能完成的操作数，与上一次的结果取平均，
+     * 下一次批量操作从这个大小开始。
+     */
+    private int tuneChunkSize(int operationCount, long elapsedNanos) {
+        long nanosPerOperation = Math.max(1, elapsedNanos / operationCount);
+        long target = mConfig.getBatchTransactionMillis() * 1000000L / nanosPerOperation;
+        int size = (int) Math.max(MIN_OPERATIONS_PER_CHUNK, Math.min(MAX_OPERATIONS_PER_YIELD_POINT - 1, target));
+        size = (mBatchChunkSize + size) / 2;
+        mBatchChunkSize = size;
+        return size;
+    }
+
+    /**
+     * 结束当前线程的事务，提交成功时调用 {@link #onEndTransaction()}，否则丢弃事务中记录的变化通知。
+     */
+    private void endTransaction(boolean successful) {
+        boolean committed = false;
+        try {
             mDb.endTransaction();
-            onEndTransaction();
+            committed = successful;
+        } finally {
+            if (committed) {
+                onEndTransaction();
+            } else {
+                mNotificationScheduler.onRollbackTransaction();
+            }
         }
     }
 
+    /**
+     * 事务提交后调用。
+     */
     protected void onEndTransaction() {
-        Set<Uri> changed;
-        synchronized (mChangedUris) {
-            changed = new HashSet<>(mChangedUris);
-            mChangedUris.clear();
+        mNotificationScheduler.onCommitTransaction();
+        if (mCacheEvictor != null) {
+            mCacheEvictor.scheduleIfNeeded();
         }
-        ContentResolver resolver = getContext().getContentResolver();
-        for (Object uriObject : changed) {
-            if (!(uriObject instanceof Uri)) {
-                continue;
-            }
-            Uri uri = (Uri) uriObject;
-            resolver.notifyChange(uri, null, false);
+    }
+
+    /**
+     * 处理 {@link Constant#METHOD_TOUCH}：批量更新有容量上限的表中行的访问时间，不发出变化通知。
+     * 处理 {@link Constant#METHOD_APPLY_BATCH}：跨进程时按指定的 {@link BatchAtomicity} 执行批量操作。
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (Constant.METHOD_APPLY_BATCH.equals(method)) {
+            return callApplyBatch(extras);
+        }
+        if (!Constant.METHOD_TOUCH.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        enforceCallingWritePermission(method);
+        if (mCacheEvictor == null || extras == null || !invalidSQLiteDatabase()) {
+            return null;
+        }
+        long accessTime = extras.getLong(Constant.EXTRA_ACCESS_TIME, System.currentTimeMillis());
+        mCacheEvictor.touch(mDb, arg, extras.getLongArray(Constant.EXTRA_ROW_IDS), accessTime);
+        return null;
+    }
+
+    /**
+     * call 不经过 ContentProvider 对 insert、update 等方法做的权限检查，会修改数据的方法需要自己检查：
+     * 其他应用调用时必须拥有 Provider 声明的写权限，没有声明写权限时只允许同一个 uid 调用。
+     * @throws SecurityException 调用方没有权限。
+     */
+    private void enforceCallingWritePermission(String method) {
+        int callingUid = Binder.getCallingUid();
+        if (callingUid == Process.myUid()) {
+            return;
+        }
+        String permission = getWritePermission();
+        if (permission == null) {
+            throw new SecurityException("uid " + callingUid + " is not allowed to call " + method);
+        }
+        getContext().enforceCallingOrSelfPermission(permission, "uid " + callingUid + " calling " + method);
+    }
+
+    /**
+     * call 不能抛出受检异常，失败时在结果中返回错误信息和已经提交的 yield 点数量，由 DbWorker 还原为 OperationApplicationException。
+     */
+    private Bundle callApplyBatch(Bundle extras) {
+        enforceCallingWritePermission(Constant.METHOD_APPLY_BATCH);
+        if (extras == null) {
+            return null;
         }
+        ArrayList<ContentProviderOperation> operations = extras.getParcelableArrayList(Constant.EXTRA_OPERATIONS);
+        if (operations == null) {
+            return null;
+        }
+        ContentProviderResult[] results;
+        try {
+            results = applyBatch(operations, extras.getInt(Constant.EXTRA_ATOMICITY, BatchAtomicity.PER_CHUNK));
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "callApplyBatch failed", e);
+            Bundle bundle = new Bundle();
+            bundle.putString(Constant.EXTRA_ERROR, String.valueOf(e.getMessage()));
+            bundle.putInt(Constant.EXTRA_SUCCESSFUL_YIELD_POINTS, e.getNumSuccessfulYieldPoints());
+            return bundle;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putParcelableArray(Constant.EXTRA_RESULTS, results);
+        return bundle;
+    }
+
+    /**
+     * 立即发出所有等待合并的变化通知，主要用于测试。
+     */
+    public void flushNotifications() {
+        mNotificationScheduler.flushNow();
     }
 
     private boolean invalidSQLiteDatabase() {
@@ -197,21 +440,187 @@ public abstract class SQLiteContentProvider extends ContentProvider {
     private boolean invalidSQLiteDatabase(boolean readOnly) {
         boolean invalidOk = true;
         try {
+            SQLiteDatabase db;
             if (readOnly) {
-                mDb = mOpenHelper.getReadableDatabase();
+                db = mOpenHelper.getReadableDatabase();
             } else {
-                mDb = mOpenHelper.getWritableDatabase();
+                db = mOpenHelper.getWritableDatabase();
+            }
+            if (db != mConfiguredDb) {
+                configureDatabase(db);
             }
+            mDb = db;
         } catch (Exception e) {
+            Log.e(TAG, "can not open database", e);
             invalidOk = false;
         }
         return invalidOk;
     }
 
+    /**
+     * 每个 SQLiteDatabase 实例配置成功一次，需要在事务之外执行。
+     * 配置失败只记录日志，数据库仍然可以使用，不会因为一个不支持的设置让 Provider 的所有操作都失败。
+     * 要求开启的 WAL 没有开启成功时（例如其他线程正在事务中，或者数据库是只读打开的），下一次获取数据库时重新配置。
+     * PRAGMA synchronous 只作用于执行它的主连接；所有写操作都在主连接上执行，WAL 的只读连接不受影响。
+     * {@link Durability#NORMAL} 只有在 WAL 模式下才不会损坏数据库，WAL 没有开启时不降低同步级别。
+     */
+    private synchronized void configureDatabase(SQLiteDatabase db) {
+        if (db == mConfiguredDb) {
+            return;
+        }
+        boolean walActive = false;
+        if (mConfig.isWriteAheadLogging()) {
+            try {
+                walActive = !db.isReadOnly() && db.enableWriteAheadLogging();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "configureDatabase, enable write-ahead logging failed for " + db.getPath(), e);
+            }
+            if (!walActive) {
+                Log.w(TAG, "configureDatabase, write-ahead logging is not enabled, retry later for " + db.getPath());
+                return;
+            }
+        }
+        //开启 WAL 会重新配置主连接，因此在它之后再设置 synchronous。
+        int durability = mConfig.getDurability();
+        if (durability == Durability.NORMAL && !walActive) {
+            Log.w(TAG, "configureDatabase, synchronous=NORMAL needs write-ahead logging, keep the default for " + db.getPath());
+        } else if (durability != Durability.DEFAULT) {
+            try {
+                db.execSQL("PRAGMA synchronous=" + durability);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "configureDatabase, can not set synchronous=" + durability + " for " + db.getPath(), e);
+            }
+        }
+        mConfiguredDb = db;
+    }
+
     protected void postNotifyUri(Uri uri) {
-        synchronized (mChangedUris) {
-            mChangedUris.add(uri);
+        postNotifyChange(uri, 0, null);
+    }
+
+    protected void postNotifyChange(Uri uri, int operation, long rowId) {
+        postNotifyChange(uri, operation, new long[]{rowId});
+    }
+
+    /**
+     * 记录当前线程的事务中表的变化，事务提交后通知观察者，回滚时丢弃；当前线程不在事务中时直接安排通知。
+     * @param operation {@link ChangeInfo} 中的 OPERATION_*，为 0 表示未知。
+     * @param rowIds 变化的行 id，为 null 表示未知。
+     */
+    protected void postNotifyChange(Uri uri, int operation, long[] rowIds) {
+        mNotificationScheduler.add(uri, operation, rowIds, mDb != null && mDb.inTransaction());
+    }
+
+    /**
+     * 把超过阈值的 BLOB 转存到文件并替换成引用，未开启转存时返回原对象。
+     */
+    protected ContentValues offloadBlobs(ContentValues values) throws IOException {
+        return mBlobStore != null ? mBlobStore.offload(values) : values;
+    }
+
+    /**
+     * 删除、更新或覆盖了行之后调用，稍后回收不再被引用的 BLOB 文件。
+     */
+    protected void onBlobsMayBeOrphaned() {
+        if (mBlobStore == null) {
+            return;
         }
+        mBlobStore.scheduleCollect(new Runnable() {
+
+            @Override
+            public void run() {
+                collectBlobGarbage();
+            }
+        });
+    }
+
+    /**
+     * 插入成功后调用。普通的 INSERT 不会覆盖已有的行，只有表的约束声明了 ON CONFLICT REPLACE 时，
+     * 被替换的旧行才可能引用了 BLOB 文件，此时才安排回收。表的定义只查询一次，运行中修改约束后需要重新创建 Provider。
+     */
+    void onRowsInserted(SQLiteDatabase db, String tableName) {
+        if (mBlobStore == null) {
+            return;
+        }
+        Boolean replace = mReplaceConflictTables.get(tableName);
+        if (replace == null) {
+            replace = hasReplaceConflict(db, tableName);
+            mReplaceConflictTables.put(tableName, replace);
+        }
+        if (replace) {
+            onBlobsMayBeOrphaned();
+        }
+    }
+
+    private static boolean hasReplaceConflict(SQLiteDatabase db, String tableName) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?", new String[]{tableName});
+            if (cursor.moveToFirst()) {
+                String sql = cursor.getString(0);
+                return sql == null || sql.toUpperCase(Locale.US).contains("REPLACE");
+            }
+            return false;
+        } catch (RuntimeException e) {
+            //无法确定时按可能覆盖处理，回收只是多做一次检查。
+            Log.w(TAG, "hasReplaceConflict, can not read schema of " + tableName, e);
+            return true;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * 立即回收不再被引用的 BLOB 文件，在写入后 {@link BlobStore#GC_GRACE_MILLIS} 内的文件不会被删除。
+     * @return 删除的文件数。
+     */
+    public int collectBlobGarbage() {
+        if (mBlobStore == null) {
+            return 0;
+        }
+        try {
+            return mBlobStore.collectGarbage(mOpenHelper.getWritableDatabase());
+        } catch (RuntimeException e) {
+            Log.w(TAG, "collectBlobGarbage, failed", e);
+            return 0;
+        }
+    }
+
+    /**
+     * @return 表的容量上限和当前总量，没有注册上限时返回 null。
+     */
+    CacheEvictor.Tracker getBoundedTable(String tableName) {
+        return mCacheEvictor != null ? mCacheEvictor.get(tableName) : null;
+    }
+
+    /**
+     * @return 未开启慢查询日志时返回 null。
+     */
+    SlowQueryLog getSlowQueryLog() {
+        return mSlowQueryLog;
+    }
+
+    /**
+     * @return 最近记录的慢查询，从旧到新排列，未开启慢查询日志时为空。
+     */
+    public List<SlowQuery> getSlowQueries() {
+        return mSlowQueryLog != null ? mSlowQueryLog.snapshot() : Collections.<SlowQuery>emptyList();
+    }
+
+    public void setSlowQueryListener(ISlowQueryListener listener) {
+        if (mSlowQueryLog != null) {
+            mSlowQueryLog.setListener(listener);
+        }
+    }
+
+    SQLiteDatabase getWritableDatabase() {
+        return mOpenHelper.getWritableDatabase();
+    }
+
+    protected DbConfig getConfig() {
+        return mConfig;
     }
 
     private boolean applyingBatch() {
@@ -220,12 +629,43 @@ public abstract class SQLiteContentProvider extends ContentProvider {
 
     public abstract SQLiteOpenHelper getDatabaseHelper(Context context);
 
+    /**
+     * 子类覆盖该方法配置 WAL、持久化级别等选项，在 onCreate 中调用一次。
+     */
+    protected DbConfig getDbConfig() {
+        return new DbConfig.Builder().build();
+    }
+
     public abstract Uri onInsert(SQLiteDatabase db, Uri uri, ContentValues values);
 
+    /**
+     * 在同一个事务中插入多行，子类可以覆盖该方法复用编译好的语句。
+     * @return 插入成功的行数。
+     */
+    public int onBulkInsert(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        int count = 0;
+        for (ContentValues value : values) {
+            if (onInsert(db, uri, value) != null) {
+                count++;
+            }
+            db.yieldIfContendedSafely();
+        }
+        return count;
+    }
+
     public abstract int onUpdate(SQLiteDatabase db, Uri uri, ContentValues values, String selection, String[] selectionArgs);
 
     public abstract int onDeleted(SQLiteDatabase db, Uri uri, String selection, String[] selectionArgs);
 
     public abstract Cursor onQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder);
 
+    /**
+     * 可以取消的查询，cancellationSignal 被取消时抛出 OperationCanceledException，默认忽略取消信号。
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Cursor onQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                          CancellationSignal cancellationSignal) {
+        return onQuery(db, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
 }
@@ -0,0 +1,319 @@
+package com.lib.database;
+
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 把各分片已经按 sortOrder 排好序的 Cursor 多路归并到一个 MatrixCursor 中，再应用 offset 和 limit。
+ * 值的比较规则与 SQLite 一致：NULL 最小，其次是数值、文本、BLOB。
+ */
+class ShardMerger {
+
+    private static final Pattern SORT_TERM = Pattern.compile(
+            "^\\s*(?:\\w+\\.)?[\"`\\[]?(\\w+)[\"`\\]]?(?:\\s+COLLATE\\s+(\\w+))?(?:\\s+(ASC|DESC))?\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LIMIT_OFFSET = Pattern.compile("^\\s*(-?\\d+)\\s+OFFSET\\s+(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    private final String[] sortColumns;
+    private final boolean[] descending;
+    private final boolean[] noCase;
+    private final String[] shardProjection;
+    /**
+     * 返回的列数，为 -1 时返回分片 Cursor 的所有列；小于分片的列数时多出的列是只用于排序的列。
+     */
+    private final int outputColumnCount;
+    private final long offset;
+    /**
+     * 为 -1 时不限制行数。
+     */
+    private final long count;
+
+    ShardMerger(String[] projection, String sortOrder, String limit) {
+        List<String> columns = new ArrayList<>();
+        List<Boolean> descendingList = new ArrayList<>();
+        List<Boolean> noCaseList = new ArrayList<>();
+        if (sortOrder != null && !sortOrder.trim().isEmpty()) {
+            for (String term : sortOrder.split(",")) {
+                Matcher matcher = SORT_TERM.matcher(term);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException("sharded query only supports column names in sortOrder, term=" + term);
+                }
+                String collation = matcher.group(2);
+                if (collation != null && !"NOCASE".equalsIgnoreCase(collation) && !"BINARY".equalsIgnoreCase(collation)) {
+                    throw new IllegalArgumentException("sharded query does not support collation " + collation);
+                }
+                columns.add(matcher.group(1));
+                descendingList.add("DESC".equalsIgnoreCase(matcher.group(3)));
+                noCaseList.add("NOCASE".equalsIgnoreCase(collation));
+            }
+        }
+        sortColumns = columns.toArray(new String[columns.size()]);
+        descending = new boolean[sortColumns.length];
+        noCase = new boolean[sortColumns.length];
+        for (int i = 0; i < sortColumns.length; i++) {
+            descending[i] = descendingList.get(i);
+            noCase[i] = noCaseList.get(i);
+        }
+        if (projection == null || projection.length == 0) {
+            shardProjection = null;
+            outputColumnCount = -1;
+        } else {
+            List<String> extended = new ArrayList<>(Arrays.asList(projection));
+            for (String column : sortColumns) {
+                if (!containsColumn(projection, column)) {
+                    extended.add(column);
+                }
+            }
+            shardProjection = extended.toArray(new String[extended.size()]);
+            outputColumnCount = projection.length;
+        }
+        long[] offsetAndCount = parseLimit(limit);
+        offset = offsetAndCount[0];
+        count = offsetAndCount[1];
+    }
+
+    String[] getShardProjection() {
+        return shardProjection;
+    }
+
+    /**
+     * @return 每个分片需要读取的行数，不限制时返回 null。
+     */
+    String getShardLimit() {
+        return count < 0 ? null : String.valueOf(offset + count);
+    }
+
+    /**
+     * 归并完成后关闭所有分片的 Cursor。
+     */
+    Cursor merge(List<Cursor> cursors) {
+        List<Cursor> sources = new ArrayList<>(cursors.size());
+        for (Cursor cursor : cursors) {
+            if (cursor != null) {
+                sources.add(cursor);
+            }
+        }
+        if (sources.isEmpty()) {
+            return new MatrixCursor(shardProjection != null ? Arrays.copyOf(shardProjection, outputColumnCount) : new String[0]);
+        }
+        try {
+            String[] columnNames = sources.get(0).getColumnNames();
+            int columnCount = outputColumnCount >= 0 ? outputColumnCount : columnNames.length;
+            int[] sortIndexes = new int[sortColumns.length];
+            for (int i = 0; i < sortColumns.length; i++) {
+                sortIndexes[i] = sources.get(0).getColumnIndexOrThrow(sortColumns[i]);
+            }
+            MatrixCursor merged = new MatrixCursor(Arrays.copyOf(columnNames, columnCount));
+            PriorityQueue<Source> queue = new PriorityQueue<>(sources.size(), new Comparator<Source>() {
+
+                @Override
+                public int compare(Source a, Source b) {
+                    int result = compareKeys(a.keys, b.keys);
+                    return result != 0 ? result : a.index - b.index;
+                }
+            });
+            for (int i = 0; i < sources.size(); i++) {
+                Source source = new Source(i, sources.get(i), sortIndexes);
+                if (source.next()) {
+                    queue.add(source);
+                }
+            }
+            long skipped = 0;
+            long added = 0;
+            while (!queue.isEmpty() && (count < 0 || added < count)) {
+                Source source = queue.poll();
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = readValue(source.cursor, i);
+                    }
+                    merged.addRow(row);
+                    added++;
+                }
+                if (source.next()) {
+                    queue.add(source);
+                }
+            }
+            return merged;
+        } finally {
+            for (Cursor cursor : sources) {
+                cursor.close();
+            }
+        }
+    }
+
+    private int compareKeys(Object[] a, Object[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int result = compareValues(a[i], b[i], noCase[i]);
+            if (result != 0) {
+                return descending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    static Object readValue(Cursor cursor, int index) {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(index);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(index);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(index);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(index);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param noCase 文本是否按 COLLATE NOCASE 比较，只忽略 ASCII 字母的大小写。
+     */
+    static int compareValues(Object a, Object b, boolean noCase) {
+        int rankA = rank(a);
+        int rankB = rank(b);
+        if (rankA != rankB) {
+            return rankA - rankB;
+        }
+        if (a instanceof Number) {
+            if (a instanceof Long && b instanceof Long) {
+                long x = (Long) a;
+                long y = (Long) b;
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof String) {
+            return compareText((String) a, (String) b, noCase);
+        }
+        if (a instanceof byte[]) {
+            return compareBytes((byte[]) a, (byte[]) b);
+        }
+        return 0;
+    }
+
+    private static int rank(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return 1;
+        }
+        if (value instanceof String) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * SQLite 按 UTF-8 字节比较文本，与按码点比较的结果相同；String.compareTo 按 UTF-16 比较，遇到辅助平面的字符时不一致。
+     */
+    private static int compareText(String a, String b, boolean noCase) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            if (noCase) {
+                x = x >= 'A' && x <= 'Z' ? x + ('a' - 'A') : x;
+                y = y >= 'A' && y <= 'Z' ? y + ('a' - 'A') : y;
+            }
+            if (x != y) {
+                return x - y;
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int x = a[i] & 0xff;
+            int y = b[i] & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static boolean containsColumn(String[] projection, String column) {
+        String lower = column.toLowerCase(Locale.US);
+        for (String item : projection) {
+            String name = item.trim().toLowerCase(Locale.US).replaceAll("[\"`\\[\\]]", "");
+            if (name.equals(lower) || name.endsWith("." + lower) || name.endsWith(" as " + lower)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 支持 "count"、"offset, count" 和 "count OFFSET offset" 三种写法。
+     * @return offset 和 count，count 为 -1 表示不限制。
+     */
+    static long[] parseLimit(String limit) {
+        if (limit == null || limit.trim().isEmpty()) {
+            return new long[]{0, -1};
+        }
+        long offset;
+        long count;
+        Matcher matcher = LIMIT_OFFSET.matcher(limit);
+        if (matcher.matches()) {
+            count = Long.parseLong(matcher.group(1));
+            offset = Long.parseLong(matcher.group(2));
+        } else {
+            int comma = limit.indexOf(',');
+            if (comma >= 0) {
+                offset = Long.parseLong(limit.substring(0, comma).trim());
+                count = Long.parseLong(limit.substring(comma + 1).trim());
+            } else {
+                offset = 0;
+                count = Long.parseLong(limit.trim());
+            }
+        }
+        return new long[]{Math.max(0, offset), count < 0 ? -1 : count};
+    }
+
+    /**
+     * 一个分片的 Cursor 和当前行的排序键。
+     */
+    private static class Source {
+
+        final int index;
+        final Cursor cursor;
+        final int[] sortIndexes;
+        final Object[] keys;
+
+        Source(int index, Cursor cursor, int[] sortIndexes) {
+            this.index = index;
+            this.cursor = cursor;
+            this.sortIndexes = sortIndexes;
+            this.keys = new Object[sortIndexes.length];
+        }
+
+        boolean next() {
+            if (!cursor.moveToNext()) {
+                return false;
+            }
+            for (int i = 0; i < sortIndexes.length; i++) {
+                keys[i] = readValue(cursor, sortIndexes[i]);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.lib.database;
+
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.os.OperationCanceledException;
+
+import com.lib.database.annotation.Priority;
+import com.lib.database.annotation.RequestType;
+import com.lib.database.callback.IConverter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 由多个数据库组成的逻辑数据库，每个分片是一个 Provider 的 Uri，有各自的 {@link DbWorker} 和写线程，
+ * 不同分片的写事务可以同时进行。
+ * 写操作按分片键的哈希路由到一个分片，分片键可以直接传入，也可以通过 {@link Builder#shardKeyColumn} 从 ContentValues 中读取。
+ * 不带分片键的查询、更新和删除在所有分片上并行执行，查询结果按 sortOrder 归并并应用 limit，也支持 COUNT、SUM、MIN、MAX 和 AVG。
+ * 路由只取决于分片键和分片的数量与顺序，写入数据后不能再增删或调整分片；各分片的 rowid 相互独立，不能作为全局唯一的 id。
+ * 同步方法会等待所有分片完成，不要在主线程或 DbWorker 的线程中调用。
+ */
+public class ShardedDatabase {
+
+    private final DbExecutor executor;
+    private final Uri[] shardUris;
+    private final Map<String, String> shardKeyColumns;
+
+    public ShardedDatabase(Builder builder) {
+        if (builder.executor == null || builder.shardUris.isEmpty()) {
+            throw new IllegalArgumentException("sharded database needs an executor and at least one shard");
+        }
+        this.executor = builder.executor;
+        this.shardUris = builder.shardUris.toArray(new Uri[builder.shardUris.size()]);
+        this.shardKeyColumns = new HashMap<>(builder.shardKeyColumns);
+    }
+
+    public int getShardCount() {
+        return shardUris.length;
+    }
+
+    public List<Uri> getShardUris() {
+        return Collections.unmodifiableList(Arrays.asList(shardUris));
+    }
+
+    /**
+     * 分片键按字符串计算哈希，整数 42 和字符串 "42" 会路由到同一个分片。
+     */
+    public Uri getShardUri(Object shardKey) {
+        return shardUris[shardIndex(shardKey)];
+    }
+
+    int shardIndex(Object shardKey) {
+        if (shardKey == null) {
+            throw new IllegalArgumentException("shard key must not be null");
+        }
+        //String.hashCode 的算法是固定的，再打散一次，相近的键（例如同一个域名下的 url）也能分布均匀。
+        int hash = String.valueOf(shardKey).hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % shardUris.length;
+    }
+
+    /**
+     * 从 values 中读取 {@link Builder#shardKeyColumn} 指定的列作为分片键。
+     * @return 在所属分片中的 rowid。
+     */
+    public long insert(String tableName, ContentValues values) {
+        return insert(requireShardKey(tableName, values), tableName, values);
+    }
+
+    public long insert(Object shardKey, String tableName, ContentValues values) {
+        return executor.doSyncInsert(getShardUri(shardKey), tableName, values);
+    }
+
+    /**
+     * 按分片键分组后在各分片的写线程中并行插入。
+     */
+    public int bulkInsert(final String tableName, List<ContentValues> values) {
+        List<List<ContentValues>> groups = new ArrayList<>(shardUris.length);
+        for (int i = 0; i < shardUris.length; i++) {
+            groups.add(new ArrayList<ContentValues>());
+        }
+        for (ContentValues row : values) {
+            groups.get(shardIndex(requireShardKey(tableName, row))).add(row);
+        }
+        List<Future<Integer>> futures = new ArrayList<>(shardUris.length);
+        for (int i = 0; i < shardUris.length; i++) {
+            final Uri shardUri = shardUris[i];
+            final List<ContentValues> group = groups.get(i);
+            if (group.isEmpty()) {
+                continue;
+            }
+            futures.add(executor.getWorker(shardUri).submit(RequestType.BULK_INSERT, Priority.NORMAL, new Callable<Integer>() {
+
+                @Override
+                public Integer call() {
+                    return executor.doSyncBulkInsert(shardUri, tableName, group);
+                }
+            }));
+        }
+        return sum(await(futures));
+    }
+
+    public int update(Object shardKey, String tableName, ContentValues values, String selection, String[] selectionArgs) {
+        return executor.doSyncUpdate(getShardUri(shardKey), tableName, values, selection, selectionArgs);
+    }
+
+    /**
+     * 在所有分片上执行更新。
+     * @return 所有分片中更新的行数之和。
+     */
+    public int update(final String tableName, final ContentValues values, final String selection, final String[] selectionArgs) {
+        return sum(fanOut(RequestType.UPDATE, Priority.NORMAL, new ShardCall<Integer>() {
+
+            @Override
+            public Integer call(Uri shardUri) {
+                return executor.doSyncUpdate(shardUri, tableName, values, selection, selectionArgs);
+            }
+        }));
+    }
+
+    public int delete(Object shardKey, String tableName, String selection, String[] selectionArgs) {
+        return executor.doSyncDelete(getShardUri(shardKey), tableName, selection, selectionArgs);
+    }
+
+    /**
+     * 在所有分片上执行删除。
+     * @return 所有分片中删除的行数之和。
+     */
+    public int delete(final String tableName, final String selection, final String[] selectionArgs) {
+        return sum(fanOut(RequestType.DELETE, Priority.NORMAL, new ShardCall<Integer>() {
+
+            @Override
+            public Integer call(Uri shardUri) {
+                return executor.doSyncDelete(shardUri, tableName, selection, selectionArgs);
+            }
+        }));
+    }
+
+    /**
+     * 只在分片键所在的分片上执行请求，支持 DbRequest 的所有参数。
+     */
+    public <T> T query(Object shardKey, DbRequest request) {
+        DbResponse<T> response = executor.doSync(getShardUri(shardKey), request);
+        return response != null ? response.getValue() : null;
+    }
+
+    /**
+     * 在所有分片的读线程中并行查询，结果按 sortOrder 归并后应用 limit，再交给请求中的转换器。
+     * 每个分片最多读取 offset + limit 行。不支持 groupBy、having 和 rawQuery；
+     * sortOrder 的每一项只能是列名，可以带 COLLATE NOCASE/BINARY 和 ASC/DESC，不在 projection 中的排序列会自动查询但不返回。
+     */
+    public <T> T query(DbRequest request) {
+        if (request.isRawQuery() || request.getGroupBy() != null || request.getHaving() != null) {
+            throw new IllegalArgumentException("sharded query does not support rawQuery, groupBy or having");
+        }
+        final String tableName = request.getTableName();
+        final String selection = request.getSelection();
+        final String[] selectionArgs = request.getSelectionArgsArray();
+        final String sortOrder = request.getSortOrder();
+        final ShardMerger merger = new ShardMerger(request.getProjectionArray(), sortOrder, request.getLimit());
+        List<Cursor> cursors = fanOut(RequestType.QUERY, request.getPriority(), new ShardCall<Cursor>() {
+
+            @Override
+            public Cursor call(Uri shardUri) {
+                DbWorker worker = executor.getWorker(shardUri);
+                Uri uri = worker.getTableUri(tableName);
+                if (merger.getShardLimit() != null) {
+                    uri = uri.buildUpon().appendQueryParameter(Constant.LIMIT, merger.getShardLimit()).build();
+                }
+                Cursor cursor = worker.query(uri, merger.getShardProjection(), selection, selectionArgs, sortOrder, null);
+                if (cursor != null) {
+                    //在分片的读线程中执行查询，而不是等到归并时在调用线程中执行。
+                    cursor.getCount();
+                }
+                return cursor;
+            }
+        });
+        Cursor merged = merger.merge(cursors);
+        IConverter converter = request.getIConverter() != null ? request.getIConverter() : DbRequest.DEFAULT_CONVERTER;
+        T value = (T) executor.getWorker(shardUris[0]).convert(converter, merged, null);
+        if (!(converter instanceof CursorConverter) && !merged.isClosed()) {
+            merged.close();
+        }
+        return value;
+    }
+
+    public long count(String tableName, String selection, String[] selectionArgs) {
+        long count = 0;
+        for (Object[] row : aggregate(tableName, new String[]{"COUNT(*)"}, selection, selectionArgs)) {
+            count += ((Number) row[0]).longValue();
+        }
+        return count;
+    }
+
+    /**
+     * 使用 TOTAL，没有行时返回 0。
+     */
+    public double sum(String tableName, String column, String selection, String[] selectionArgs) {
+        double sum = 0;
+        for (Object[] row : aggregate(tableName, new String[]{"TOTAL(" + column + ")"}, selection, selectionArgs)) {
+            sum += ((Number) row[0]).doubleValue();
+        }
+        return sum;
+    }
+
+    /**
+     * @return 没有非 NULL 值时返回 null。
+     */
+    public Double avg(String tableName, String column, String selection, String[] selectionArgs) {
+        double sum = 0;
+        long count = 0;
+        for (Object[] row : aggregate(tableName, new String[]{"TOTAL(" + column + ")", "COUNT(" + column + ")"}, selection, selectionArgs)) {
+            sum += ((Number) row[0]).doubleValue();
+            count += ((Number) row[1]).longValue();
+        }
+        return count > 0 ? sum / count : null;
+    }
+
+    /**
+     * 按 SQLite 的规则比较各分片的 MIN。
+     * @return Long、Double、String 或 byte[]，没有非 NULL 值时返回 null。
+     */
+    public Object min(String tableName, String column, String selection, String[] selectionArgs) {
+        return extreme(tableName, "MIN(" + column + ")", selection, selectionArgs, false);
+    }
+
+    /**
+     * 按 SQLite 的规则比较各分片的 MAX。
+     * @return Long、Double、String 或 byte[]，没有非 NULL 值时返回 null。
+     */
+    public Object max(String tableName, String column, String selection, String[] selectionArgs) {
+        return extreme(tableName, "MAX(" + column + ")", selection, selectionArgs, true);
+    }
+
+    private Object extreme(String tableName, String expression, String selection, String[] selectionArgs, boolean max) {
+        Object result = null;
+        for (Object[] row : aggregate(tableName, new String[]{expression}, selection, selectionArgs)) {
+            Object value = row[0];
+            if (value == null) {
+                continue;
+            }
+            if (result == null) {
+                result = value;
+            } else {
+                int compare = ShardMerger.compareValues(value, result, false);
+                if (max ? compare > 0 : compare < 0) {
+                    result = value;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 每个分片聚合结果的第一行。
+     */
+    private List<Object[]> aggregate(final String tableName, final String[] projection, final String selection, final String[] selectionArgs) {
+        return fanOut(RequestType.QUERY, Priority.NORMAL, new ShardCall<Object[]>() {
+
+            @Override
+            public Object[] call(Uri shardUri) {
+                DbWorker worker = executor.getWorker(shardUri);
+                Cursor cursor = worker.query(worker.getTableUri(tableName), projection, selection, selectionArgs, null, null);
+                Object[] row = new Object[projection.length];
+                if (cursor == null) {
+                    throw new IllegalStateException("aggregate query returned null, shard=" + shardUri);
+                }
+                try {
+                    if (cursor.moveToFirst()) {
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = ShardMerger.readValue(cursor, i);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return row;
+            }
+        });
+    }
+
+    private String requireShardKey(String tableName, ContentValues values) {
+        String column = shardKeyColumns.get(tableName);
+        if (column == null) {
+            throw new IllegalArgumentException("no shard key column for table " + tableName);
+        }
+        Object key = values.get(column);
+        if (key == null) {
+            throw new IllegalArgumentException("values has no shard key, table=" + tableName + ", column=" + column);
+        }
+        return String.valueOf(key);
+    }
+
+    private <V> List<V> fanOut(@RequestType int requestType, @Priority int priority, final ShardCall<V> call) {
+        List<Future<V>> futures = new ArrayList<>(shardUris.length);
+        for (final Uri shardUri : shardUris) {
+            futures.add(executor.getWorker(shardUri).submit(requestType, priority, new Callable<V>() {
+
+                @Override
+                public V call() {
+                    return call.call(shardUri);
+                }
+            }));
+        }
+        return await(futures);
+    }
+
+    /**
+     * 任一分片失败时等待其他分片结束并关闭它们返回的 Cursor，再抛出失败的原因。
+     */
+    private static <V> List<V> await(List<Future<V>> futures) {
+        List<V> results = new ArrayList<>(futures.size());
+        boolean success = false;
+        try {
+            for (Future<V> future : futures) {
+                results.add(future.get());
+            }
+            success = true;
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException("interrupted while waiting for shards");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (!success) {
+                for (Future<V> future : futures) {
+                    closeQuietly(future);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Future<?> future) {
+        try {
+            Object value = future.get();
+            if (value instanceof Closeable) {
+                ((Closeable) value).close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException | RuntimeException ignored) {
+        }
+    }
+
+    private static int sum(List<Integer> counts) {
+        int sum = 0;
+        for (Integer count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private interface ShardCall<V> {
+
+        V call(Uri shardUri);
+    }
+
+    public static class Builder {
+
+        private DbExecutor executor;
+        private List<Uri> shardUris = new ArrayList<>();
+        private Map<String, String> shardKeyColumns = new HashMap<>();
+
+        public Builder executor(DbExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 分片的顺序决定路由，添加顺序需要始终一致。
+         */
+        public Builder addShard(Uri dbUri) {
+            shardUris.add(dbUri);
+            return this;
+        }
+
+        /**
+         * 插入时用该列的值作为分片键，例如 url。
+         */
+        public Builder shardKeyColumn(String tableName, String column) {
+            shardKeyColumns.put(tableName, column);
+            return this;
+        }
+
+        public ShardedDatabase build() {
+            return new ShardedDatabase(this);
+        }
+    }
+}
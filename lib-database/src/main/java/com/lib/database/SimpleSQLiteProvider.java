@@ -1,70 +1,310 @@
 package com.lib.database;
 
+import android.annotation.TargetApi;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 public abstract class SimpleSQLiteProvider extends SQLiteContentProvider {
 
     private static final String TAG = SimpleSQLiteProvider.class.getSimpleName();
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 16;
+
+    private volatile StatementCache statementCache;
 
     @Override
     public Uri onInsert(SQLiteDatabase db, Uri uri, ContentValues values) {
         long id = -1;
         String tableName = getDatabaseTableName(db, uri);
-        if (tableName != null) {
+        CacheEvictor.Tracker tracker = getBoundedTable(tableName);
+        if (tracker != null) {
+            values = tracker.prepareInsert(db, uri, values);
+        }
+        if (tableName == null) {
+            Log.e(TAG, "onInsert, Unknown insert URI " + uri);
+        } else if (values == null || values.size() == 0) {
             id = db.insert(tableName, null, values);
         } else {
-            Log.e(TAG, "onInsert, Unknown insert URI " + uri);
+            id = insertRow(db, uri, tableName, values);
         }
         if (id >= 0) {
-            postNotifyUri(uri);
+            if (tracker != null) {
+                tracker.onInserted(values);
+            }
+            //ON CONFLICT REPLACE 可能覆盖了引用 BLOB 文件的旧行。
+            onRowsInserted(db, tableName);
+            postNotifyChange(uri, ChangeInfo.OPERATION_INSERT, id);
             return ContentUris.withAppendedId(uri, id);
         }
         return null;
     }
 
+    private long insertRow(SQLiteDatabase db, Uri uri, String tableName, ContentValues values) {
+        try {
+            values = offloadBlobs(values);
+        } catch (IOException e) {
+            Log.e(TAG, "onInsert, can not offload blob " + uri, e);
+            return -1;
+        }
+        String[] columns = sortedColumns(values);
+        SQLiteStatement statement = acquireStatement(db, buildInsertSql(tableName, columns));
+        try {
+            synchronized (statement) {
+                bindValues(statement, columns, values);
+                return statement.executeInsert();
+            }
+        } catch (SQLException e) {
+            //与 SQLiteDatabase.insert 保持一致，插入失败时返回 -1。
+            Log.e(TAG, "onInsert, insert failed " + uri, e);
+            return -1;
+        } finally {
+            statement.releaseReference();
+        }
+    }
+
+    @Override
+    public int onBulkInsert(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        String tableName = getDatabaseTableName(db, uri);
+        if (tableName == null) {
+            Log.e(TAG, "onBulkInsert, Unknown insert URI " + uri);
+            return 0;
+        }
+        CacheEvictor.Tracker tracker = getBoundedTable(tableName);
+        int count = 0;
+        String[] columns = null;
+        SQLiteStatement statement = null;
+        try {
+            for (ContentValues value : values) {
+                if (tracker != null) {
+                    value = tracker.prepareInsert(db, uri, value);
+                }
+                if (value == null || value.size() == 0) {
+                    long id = db.insert(tableName, null, value);
+                    if (id >= 0) {
+                        count++;
+                        postNotifyChange(uri, ChangeInfo.OPERATION_INSERT, id);
+                    }
+                    continue;
+                }
+                //所有行的列相同时复用同一条语句，只在列变化时重新获取。
+                if (statement == null || !hasSameColumns(value, columns)) {
+                    if (statement != null) {
+                        statement.releaseReference();
+                        statement = null;
+                    }
+                    columns = sortedColumns(value);
+                    statement = acquireStatement(db, buildInsertSql(tableName, columns));
+                }
+                try {
+                    value = offloadBlobs(value);
+                    synchronized (statement) {
+                        bindValues(statement, columns, value);
+                        long id = statement.executeInsert();
+                        if (id >= 0) {
+                            count++;
+                            if (tracker != null) {
+                                tracker.onInserted(value);
+                            }
+                            postNotifyChange(uri, ChangeInfo.OPERATION_INSERT, id);
+                        }
+                    }
+                } catch (SQLException e) {
+                    Log.e(TAG, "onBulkInsert, insert failed " + uri, e);
+                } catch (IOException e) {
+                    Log.e(TAG, "onBulkInsert, can not offload blob " + uri, e);
+                }
+                db.yieldIfContendedSafely();
+            }
+        } finally {
+            if (statement != null) {
+                statement.releaseReference();
+            }
+        }
+        if (count > 0) {
+            onRowsInserted(db, tableName);
+        }
+        return count;
+    }
+
     @Override
     public int onUpdate(SQLiteDatabase db, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        int id = -1;
+        int count = 0;
+        long[] rowIds = null;
         String tableName = getDatabaseTableName(db, uri);
-        if (tableName != null) {
-            id = db.update(tableName, values, selection, selectionArgs);
-        } else {
+        if (tableName != null && getConfig().isTrackChangedRowIds()) {
+            rowIds = queryRowIds(db, tableName, selection, selectionArgs);
+        }
+        CacheEvictor.Tracker tracker = getBoundedTable(tableName);
+        long[] totalsBefore = null;
+        if (tracker != null && values != null && tracker.table.getSizeColumn() != null
+                && values.containsKey(tracker.table.getSizeColumn())) {
+            totalsBefore = tracker.queryTotals(db, selection, selectionArgs);
+        }
+        if (tableName == null) {
             Log.e(TAG, "onUpdate, Unknown insert URI " + uri);
+        } else if (values == null || values.size() == 0) {
+            count = db.update(tableName, values, selection, selectionArgs);
+        } else {
+            try {
+                values = offloadBlobs(values);
+            } catch (IOException e) {
+                Log.e(TAG, "onUpdate, can not offload blob " + uri, e);
+                return 0;
+            }
+            String[] columns = sortedColumns(values);
+            SQLiteStatement statement = acquireStatement(db, buildUpdateSql(tableName, columns, selection));
+            try {
+                synchronized (statement) {
+                    bindValues(statement, columns, values);
+                    bindArgs(statement, columns.length, selectionArgs);
+                    count = statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.releaseReference();
+            }
         }
-        if (id > 0) {
-            postNotifyUri(uri);
+        if (count > 0) {
+            if (totalsBefore != null) {
+                tracker.add(0, count * tracker.sizeOf(values) - totalsBefore[1]);
+            }
+            onBlobsMayBeOrphaned();
+            postNotifyChange(uri, ChangeInfo.OPERATION_UPDATE, rowIds);
         }
-        return 0;
+        return count;
     }
 
     @Override
     public int onDeleted(SQLiteDatabase db, Uri uri, String selection, String[] selectionArgs) {
+        int count = 0;
+        long[] rowIds = null;
         String tableName = getDatabaseTableName(db, uri);
-        int id = -1;
+        if (tableName != null && getConfig().isTrackChangedRowIds()) {
+            rowIds = queryRowIds(db, tableName, selection, selectionArgs);
+        }
+        //删除前统计将被删除的行数和大小，增量更新容量上限表的总量。
+        CacheEvictor.Tracker tracker = getBoundedTable(tableName);
+        long[] totalsBefore = tracker != null ? tracker.queryTotals(db, selection, selectionArgs) : null;
         if (tableName != null) {
-            id = db.delete(tableName, selection, selectionArgs);
+            SQLiteStatement statement = acquireStatement(db, buildDeleteSql(tableName, selection));
+            try {
+                synchronized (statement) {
+                    statement.clearBindings();
+                    bindArgs(statement, 0, selectionArgs);
+                    count = statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.releaseReference();
+            }
         } else {
             Log.e(TAG, "onDeleted, Unknown insert URI " + uri);
         }
-        if (id > 0) {
-            postNotifyUri(uri);
+        if (count > 0) {
+            if (totalsBefore != null) {
+                tracker.add(-totalsBefore[0], -totalsBefore[1]);
+            }
+            onBlobsMayBeOrphaned();
+            postNotifyChange(uri, ChangeInfo.OPERATION_DELETE, rowIds);
+        }
+        return count;
+    }
+
+    /**
+     * 查询将被修改的行 id，行数超过 {@link NotificationScheduler#MAX_ROW_IDS} 或查询失败时返回 null。
+     */
+    private long[] queryRowIds(SQLiteDatabase db, String tableName, String selection, String[] selectionArgs) {
+        String sql = "SELECT rowid FROM " + tableName
+                + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection)
+                + " LIMIT " + (NotificationScheduler.MAX_ROW_IDS + 1);
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, selectionArgs);
+            int count = cursor.getCount();
+            if (count > NotificationScheduler.MAX_ROW_IDS) {
+                return null;
+            }
+            long[] rowIds = new long[count];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                rowIds[i] = cursor.getLong(0);
+            }
+            return rowIds;
+        } catch (SQLException e) {
+            Log.w(TAG, "queryRowIds, can not query changed rows of " + tableName, e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
-        return 0;
     }
 
     @Override
     public Cursor onQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(db, uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor onQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                          CancellationSignal cancellationSignal) {
+        return query(db, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+    }
+
+    /**
+     * 开启慢查询日志时先调用 getCount 执行查询并填充第一个窗口，耗时超过阈值时记录。
+     */
+    private Cursor query(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                         CancellationSignal cancellationSignal) {
+        SlowQueryLog slowQueryLog = getSlowQueryLog();
+        if (slowQueryLog == null) {
+            return executeQuery(db, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        }
+        long start = SystemClock.elapsedRealtime();
+        Cursor cursor = executeQuery(db, uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        if (cursor == null) {
+            return null;
+        }
+        int rowCount = cursor.getCount();
+        long duration = SystemClock.elapsedRealtime() - start;
+        if (duration >= slowQueryLog.getThresholdMillis()) {
+            String tableName = getDatabaseTableName(db, uri);
+            String sql;
+            if (uri.getBooleanQueryParameter(Constant.RAW_QUERY, false)) {
+                sql = selection;
+                tableName = null;
+            } else {
+                sql = SQLiteQueryBuilder.buildQueryString(false, tableName, projection, selection,
+                        uri.getQueryParameter(Constant.GROUP_BY), uri.getQueryParameter(Constant.HAVING), sortOrder,
+                        uri.getQueryParameter(Constant.LIMIT));
+            }
+            slowQueryLog.record(tableName, sql, selectionArgs, rowCount, duration);
+        }
+        return cursor;
+    }
+
+    /**
+     * @param cancellationSignal 只有 API 16 及以上才会传入，为 null 时调用不带取消信号的方法。
+     */
+    private Cursor executeQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder, CancellationSignal cancellationSignal) {
         boolean rawQuery = uri.getBooleanQueryParameter(Constant.RAW_QUERY, false);
         if (rawQuery) {
-            return db.rawQuery(selection, selectionArgs);
+            return cancellationSignal != null ? db.rawQuery(selection, selectionArgs, cancellationSignal) : db.rawQuery(selection, selectionArgs);
         }
 
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
@@ -77,9 +317,126 @@ public abstract class SimpleSQLiteProvider extends SQLiteContentProvider {
         } else {
             Log.e(TAG, "onQuery, Unknown insert URI " + uri);
         }
+        if (cancellationSignal != null) {
+            return qb.query(db, projection, selection, selectionArgs, groupBy, having, sortOrder, limit, cancellationSignal);
+        }
         return qb.query(db, projection, selection, selectionArgs, groupBy, having, sortOrder, limit);
     }
 
+    /**
+     * 编译好的语句缓存的大小，每个 Provider 对应一个数据库，子类可以按该数据库的热点语句数量调整。
+     */
+    protected int getStatementCacheSize() {
+        return DEFAULT_STATEMENT_CACHE_SIZE;
+    }
+
+    /**
+     * 表结构发生变化后（例如在 onUpgrade 中修改了表），调用该方法关闭缓存的语句。
+     */
+    public void invalidateStatementCache() {
+        getStatementCache().invalidate();
+    }
+
+    public int getStatementCacheHitCount() {
+        return getStatementCache().hitCount();
+    }
+
+    public int getStatementCacheMissCount() {
+        return getStatementCache().missCount();
+    }
+
+    private SQLiteStatement acquireStatement(SQLiteDatabase db, String sql) {
+        return getStatementCache().acquire(db, sql);
+    }
+
+    private StatementCache getStatementCache() {
+        StatementCache cache = statementCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = statementCache;
+                if (cache == null) {
+                    cache = new StatementCache(getStatementCacheSize());
+                    statementCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static void bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        }
+    }
+
+    private static void bindArgs(SQLiteStatement statement, int offset, String[] args) {
+        if (args == null) {
+            return;
+        }
+        for (int i = 0; i < args.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, offset + i + 1, args[i]);
+        }
+    }
+
+    /**
+     * 列名排序后再拼接 SQL，保证同一组列总是得到同一条语句。
+     */
+    private static String[] sortedColumns(ContentValues values) {
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    private static boolean hasSameColumns(ContentValues values, String[] columns) {
+        if (values.size() != columns.length) {
+            return false;
+        }
+        for (String column : columns) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String buildInsertSql(String tableName, String[] columns) {
+        StringBuilder sql = new StringBuilder(64);
+        sql.append("INSERT INTO ").append(tableName).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+
+    private static String buildUpdateSql(String tableName, String[] columns, String selection) {
+        StringBuilder sql = new StringBuilder(64);
+        sql.append("UPDATE ").append(tableName).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]).append("=?");
+        }
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
+        }
+        return sql.toString();
+    }
+
+    private static String buildDeleteSql(String tableName, String selection) {
+        StringBuilder sql = new StringBuilder(64);
+        sql.append("DELETE FROM ").append(tableName);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 由 Uri 得到数据库中的表名。{@link PreparedQuery} 和 rawQuery 的 SQL 由调用方生成，不经过这里的映射。
+     */
     protected String getDatabaseTableName(SQLiteDatabase database, Uri uri) {
         if (database == null) {
             return null;
@@ -0,0 +1,99 @@
+package com.lib.database;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并同时在执行的相同查询：第一个请求（leader）真正执行，之后参数相同的请求作为 follower 等待 leader 的结果。
+ * 是否相同由 {@link QueryKey} 决定，其中转换器按对象比较，follower 拿到的结果一定是用它自己的转换器转换的。
+ * @param <F> follower 的类型。
+ */
+class SingleFlight<F> {
+
+    private final ConcurrentHashMap<QueryKey, Flight<F>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong savedCount = new AtomicLong();
+
+    /**
+     * @param priority 请求的优先级，比 leader 更紧急的请求不会等待 leader，而是作为新的 leader 执行。
+     * @return 调用方成为 leader 时返回新的 Flight，执行完后必须调用 {@link #finish}；已经作为 follower 加入时返回 null。
+     */
+    Flight<F> acquire(QueryKey key, F follower, int priority) {
+        while (true) {
+            Flight<F> existing = flights.get(key);
+            if (existing != null && existing.priority <= priority && existing.addFollower(follower)) {
+                return null;
+            }
+            Flight<F> flight = new Flight<>(key, priority);
+            if (existing == null ? flights.putIfAbsent(key, flight) == null : flights.replace(key, existing, flight)) {
+                return flight;
+            }
+        }
+    }
+
+    /**
+     * 结束 flight，之后的相同请求会重新执行。
+     * @return 等待结果的 follower。
+     */
+    List<F> finish(Flight<F> flight) {
+        flights.remove(flight.key, flight);
+        return flight.close();
+    }
+
+    /**
+     * 表发生变化后，新的请求不再加入变化前开始的查询。已经加入的 follower 仍然使用原来的结果。
+     * @param tableName 表名，为 null 时对所有查询生效。
+     */
+    void detach(String tableName) {
+        for (Map.Entry<QueryKey, Flight<F>> entry : flights.entrySet()) {
+            String flightTable = entry.getKey().getTableName();
+            if (tableName == null || flightTable == null || tableName.equals(flightTable)) {
+                flights.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    void onFollowerServed() {
+        savedCount.incrementAndGet();
+    }
+
+    /**
+     * @return 通过复用其他请求的结果省去的查询次数。
+     */
+    long savedCount() {
+        return savedCount.get();
+    }
+
+    static final class Flight<F> {
+
+        private final QueryKey key;
+        private final int priority;
+        private List<F> followers;
+        private boolean closed;
+
+        private Flight(QueryKey key, int priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+
+        private synchronized boolean addFollower(F follower) {
+            if (closed) {
+                return false;
+            }
+            if (followers == null) {
+                followers = new ArrayList<>();
+            }
+            followers.add(follower);
+            return true;
+        }
+
+        private synchronized List<F> close() {
+            closed = true;
+            return followers != null ? followers : Collections.<F>emptyList();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.lib.database;
+
+
+import java.util.List;
+
+/**
+ * 一次超过 {@link DbConfig.Builder#slowQueryThresholdMillis} 的查询，包含查询计划和建议的索引。
+ */
+public class SlowQuery {
+
+    private final String tableName;
+    private final String sql;
+    private final int argCount;
+    private final int rowCount;
+    private final long durationMillis;
+    private final long timestamp;
+    private final List<String> queryPlan;
+    private final boolean fullScan;
+    private final boolean tempBTree;
+    private final List<String> suggestedIndexes;
+
+    SlowQuery(String tableName, String sql, int argCount, int rowCount, long durationMillis, long timestamp,
+              List<String> queryPlan, boolean fullScan, boolean tempBTree, List<String> suggestedIndexes) {
+        this.tableName = tableName;
+        this.sql = sql;
+        this.argCount = argCount;
+        this.rowCount = rowCount;
+        this.durationMillis = durationMillis;
+        this.timestamp = timestamp;
+        this.queryPlan = queryPlan;
+        this.fullScan = fullScan;
+        this.tempBTree = tempBTree;
+        this.suggestedIndexes = suggestedIndexes;
+    }
+
+    /**
+     * @return 查询的表，无法从原始 SQL 中解析时返回 null。
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return 归一化后的 SQL，字面量被替换为 ?，相同结构的查询得到相同的字符串。
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public int getArgCount() {
+        return argCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return 执行查询并填充第一个 CursorWindow 的耗时。
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return EXPLAIN QUERY PLAN 每一行的 detail 列。
+     */
+    public List<String> getQueryPlan() {
+        return queryPlan;
+    }
+
+    /**
+     * @return 查询计划中是否有不使用索引的全表扫描。
+     */
+    public boolean isFullScan() {
+        return fullScan;
+    }
+
+    /**
+     * @return 查询计划中是否为 ORDER BY、GROUP BY 或 DISTINCT 使用了临时 B 树排序。
+     */
+    public boolean isTempBTree() {
+        return tempBTree;
+    }
+
+    /**
+     * @return 根据选择条件和排序列建议的 CREATE INDEX 语句，没有建议时为空。
+     */
+    public List<String> getSuggestedIndexes() {
+        return suggestedIndexes;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowQuery{" + durationMillis + "ms, rows=" + rowCount + ", args=" + argCount + ", sql=" + sql
+                + ", plan=" + queryPlan + ", suggestedIndexes=" + suggestedIndexes + '}';
+    }
+}
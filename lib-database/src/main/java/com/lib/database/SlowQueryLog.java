@@ -0,0 +1,264 @@
+package com.lib.database;
+
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.lib.database.callback.ISlowQueryListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 记录超过阈值的查询：在后台线程执行 EXPLAIN QUERY PLAN，标记全表扫描和临时 B 树排序，
+ * 并根据 WHERE 中的列和 ORDER BY 的列建议索引。建议的索引在 {@link DbConfig.Builder#approvedIndex} 中时自动创建。
+ * 最近的 {@link #MAX_ENTRIES} 条记录保存在内存中。
+ */
+class SlowQueryLog {
+
+    private static final String TAG = "SlowQueryLog";
+
+    static final int MAX_ENTRIES = 64;
+    /**
+     * 建议的索引最多包含的列数。
+     */
+    private static final int MAX_INDEX_COLUMNS = 4;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern FROM_TABLE = Pattern.compile("\\bFROM\\s+[\"`\\[]?(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHERE_CLAUSE = Pattern.compile(
+            "\\bWHERE\\b(.*?)(?:\\bGROUP\\s+BY\\b|\\bORDER\\s+BY\\b|\\bLIMIT\\b|$)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ORDER_CLAUSE = Pattern.compile("\\bORDER\\s+BY\\b(.*?)(?:\\bLIMIT\\b|$)", Pattern.CASE_INSENSITIVE);
+    /**
+     * 比较运算左侧的列名，第 1、2 组为符号运算符，第 3、4 组为关键字运算符。
+     */
+    private static final Pattern CONDITION = Pattern.compile(
+            "[\"`\\[]?(\\w+)[\"`\\]]?\\s*(==|=|<=|>=|<>|!=|<|>)|[\"`\\[]?(\\w+)[\"`\\]]?\\s+(IN|IS|LIKE|GLOB|BETWEEN)\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Set<String> NOT_COLUMNS = new HashSet<>(Arrays.asList(
+            "rowid", "oid", "_rowid_", "not", "and", "or", "where", "select", "null"));
+
+    private final SQLiteContentProvider provider;
+    private final long thresholdMillis;
+    private final Set<String> approvedIndexes;
+    private final Set<String> createdIndexes = new HashSet<>();
+    private final ArrayDeque<SlowQuery> entries = new ArrayDeque<>(MAX_ENTRIES);
+    private volatile ISlowQueryListener listener;
+    private ExecutorService executor;
+
+    /**
+     * @param approvedIndexes 允许自动创建的索引，格式见 {@link #indexKey}。
+     */
+    SlowQueryLog(SQLiteContentProvider provider, long thresholdMillis, Set<String> approvedIndexes) {
+        this.provider = provider;
+        this.thresholdMillis = thresholdMillis;
+        this.approvedIndexes = approvedIndexes;
+    }
+
+    long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    void setListener(ISlowQueryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 在查询线程调用，分析在后台线程进行，不会让慢查询更慢。
+     */
+    void record(final String tableName, final String sql, final String[] args, final int rowCount, final long durationMillis) {
+        final long timestamp = System.currentTimeMillis();
+        getExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    analyze(tableName, sql, args, rowCount, durationMillis, timestamp);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "analyze failed, sql=" + sql, e);
+                }
+            }
+        });
+    }
+
+    List<SlowQuery> snapshot() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    private void analyze(String tableName, String sql, String[] args, int rowCount, long durationMillis, long timestamp) {
+        SQLiteDatabase db = provider.getWritableDatabase();
+        List<String> plan = explain(db, sql, args);
+        boolean fullScan = false;
+        boolean tempBTree = false;
+        for (String detail : plan) {
+            String upper = detail.toUpperCase(Locale.US);
+            if (upper.startsWith("SCAN") && !upper.contains("INDEX")) {
+                fullScan = true;
+            }
+            if (upper.contains("USE TEMP B-TREE")) {
+                tempBTree = true;
+            }
+        }
+        String normalizedSql = normalize(sql);
+        if (tableName == null) {
+            Matcher matcher = FROM_TABLE.matcher(normalizedSql);
+            tableName = matcher.find() ? matcher.group(1) : null;
+        }
+        List<String> suggestions = new ArrayList<>();
+        List<String> columns = null;
+        //多表查询无法判断列属于哪张表，不给出建议。
+        if ((fullScan || tempBTree) && tableName != null && !normalizedSql.toUpperCase(Locale.US).contains(" JOIN ")) {
+            columns = suggestIndexColumns(normalizedSql);
+            if (!columns.isEmpty()) {
+                suggestions.add(buildCreateIndex(tableName, columns));
+            }
+        }
+        SlowQuery slowQuery = new SlowQuery(tableName, normalizedSql, args != null ? args.length : 0, rowCount, durationMillis,
+                timestamp, plan, fullScan, tempBTree, suggestions);
+        Log.w(TAG, slowQuery.toString());
+        synchronized (entries) {
+            if (entries.size() == MAX_ENTRIES) {
+                entries.removeFirst();
+            }
+            entries.addLast(slowQuery);
+        }
+        if (columns != null && !columns.isEmpty()) {
+            createIfApproved(db, tableName, columns);
+        }
+        ISlowQueryListener l = listener;
+        if (l != null) {
+            l.onSlowQuery(slowQuery);
+        }
+    }
+
+    private static List<String> explain(SQLiteDatabase db, String sql, String[] args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex >= 0 ? detailIndex : cursor.getColumnCount() - 1));
+            }
+        } catch (SQLException e) {
+            Log.w(TAG, "explain failed, sql=" + sql, e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return plan;
+    }
+
+    private void createIfApproved(SQLiteDatabase db, String tableName, List<String> columns) {
+        String key = indexKey(tableName, columns);
+        synchronized (createdIndexes) {
+            if (!approvedIndexes.contains(key) || !createdIndexes.add(key)) {
+                return;
+            }
+        }
+        String sql = buildCreateIndex(tableName, columns);
+        try {
+            db.execSQL(sql);
+            Log.i(TAG, "created approved index: " + sql);
+        } catch (SQLException e) {
+            Log.w(TAG, "can not create approved index: " + sql, e);
+        }
+    }
+
+    /**
+     * 把字面量替换为 ?，合并空白，相同结构的查询归一化后相同。
+     */
+    static String normalize(String sql) {
+        String result = STRING_LITERAL.matcher(sql).replaceAll("?");
+        result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+        return WHITESPACE.matcher(result).replaceAll(" ").trim();
+    }
+
+    /**
+     * 等值条件的列在前，之后是第一个范围条件的列；没有范围条件时接上 ORDER BY 的列，这样排序也能使用索引。
+     * @param sql 归一化后的 SQL，不包含换行。
+     */
+    static List<String> suggestIndexColumns(String sql) {
+        List<String> equality = new ArrayList<>();
+        String range = null;
+        Matcher where = WHERE_CLAUSE.matcher(sql);
+        if (where.find()) {
+            Matcher condition = CONDITION.matcher(where.group(1));
+            while (condition.find()) {
+                String column = condition.group(1) != null ? condition.group(1) : condition.group(3);
+                String operator = (condition.group(2) != null ? condition.group(2) : condition.group(4)).toUpperCase(Locale.US);
+                if (NOT_COLUMNS.contains(column.toLowerCase(Locale.US)) || Character.isDigit(column.charAt(0))
+                        || "<>".equals(operator) || "!=".equals(operator)) {
+                    continue;
+                }
+                if ("=".equals(operator) || "==".equals(operator) || "IN".equals(operator) || "IS".equals(operator)) {
+                    if (!equality.contains(column)) {
+                        equality.add(column);
+                    }
+                } else if (range == null) {
+                    range = column;
+                }
+            }
+        }
+        List<String> columns = new ArrayList<>(equality);
+        if (range != null) {
+            if (!columns.contains(range)) {
+                columns.add(range);
+            }
+        } else {
+            Matcher order = ORDER_CLAUSE.matcher(sql);
+            if (order.find()) {
+                for (String term : order.group(1).split(",")) {
+                    String column = term.trim().split("\\s+")[0].replaceAll("[\"`\\[\\]]", "");
+                    if (!column.isEmpty() && column.matches("\\w+") && !columns.contains(column)
+                            && !NOT_COLUMNS.contains(column.toLowerCase(Locale.US))) {
+                        columns.add(column);
+                    }
+                }
+            }
+        }
+        return columns.size() > MAX_INDEX_COLUMNS ? new ArrayList<>(columns.subList(0, MAX_INDEX_COLUMNS)) : columns;
+    }
+
+    static String indexKey(String tableName, List<String> columns) {
+        return (tableName + "(" + TextUtils.join(",", columns) + ")").toLowerCase(Locale.US);
+    }
+
+    private static String buildCreateIndex(String tableName, List<String> columns) {
+        return "CREATE INDEX IF NOT EXISTS idx_auto_" + tableName + "_" + TextUtils.join("_", columns)
+                + " ON " + tableName + "(" + TextUtils.join(",", columns) + ")";
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
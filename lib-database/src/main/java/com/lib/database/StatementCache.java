@@ -0,0 +1,60 @@
+package com.lib.database;
+
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
+
+/**
+ * 按 SQL 缓存编译好的 SQLiteStatement，淘汰时关闭语句。
+ * 使用者通过 {@link #acquire} 获取的语句持有一个引用，用完后需要调用 {@link SQLiteStatement#releaseReference()}，
+ * 这样语句在使用过程中被淘汰也不会被提前关闭。
+ */
+class StatementCache {
+
+    private final LruCache<String, SQLiteStatement> cache;
+
+    /**
+     * 缓存中的语句所属的数据库，数据库重新打开后缓存失效。
+     */
+    private SQLiteDatabase database;
+
+    StatementCache(int maxSize) {
+        cache = new LruCache<String, SQLiteStatement>(maxSize) {
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+                oldValue.close();
+            }
+        };
+    }
+
+    synchronized SQLiteStatement acquire(SQLiteDatabase db, String sql) {
+        if (db != database) {
+            cache.evictAll();
+            database = db;
+        }
+        SQLiteStatement statement = cache.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            cache.put(sql, statement);
+        }
+        statement.acquireReference();
+        return statement;
+    }
+
+    /**
+     * 表结构变化后调用，关闭所有缓存的语句。
+     */
+    synchronized void invalidate() {
+        cache.evictAll();
+    }
+
+    int hitCount() {
+        return cache.hitCount();
+    }
+
+    int missCount() {
+        return cache.missCount();
+    }
+}
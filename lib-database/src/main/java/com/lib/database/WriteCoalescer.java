@@ -0,0 +1,293 @@
+package com.lib.database;
+
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.util.Log;
+
+import com.lib.database.annotation.LatencyStage;
+import com.lib.database.annotation.Priority;
+import com.lib.database.annotation.RequestType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 将排队中的异步写请求合并到同一个 applyBatch 事务中执行，分摊每次事务提交和通知的开销。
+ * 第一个请求进入空队列时用 {@link DbWorker#schedule} 计时，窗口结束后才把收集好的请求交给写线程，
+ * 等待期间写线程可以执行其他任务，例如 {@link DbWorker#submit} 提交的分片写入。
+ */
+class WriteCoalescer {
+
+    private static final String TAG = WriteCoalescer.class.getSimpleName();
+
+    /**
+     * 单个事务最多合并的请求数。必须小于 SQLiteContentProvider 开始自动分块的操作数，
+     * 合并后的批量操作才会在一个事务中执行，失败时整体回滚，{@link #executeBatch} 才能逐个重新执行所有请求。
+     */
+    static final int MAX_BATCH_SIZE = SQLiteContentProvider.MAX_OPERATIONS_PER_YIELD_POINT / 2;
+
+    private static final Callable<Void> NO_OP = new Callable<Void>() {
+
+        @Override
+        public Void call() throws Exception {
+            return null;
+        }
+    };
+
+    private final DbWorker worker;
+    private final ExecutorService executor;
+    private final int maxBatchSize;
+    private final long windowMillis;
+    private final LinkedBlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    /**
+     * 已经安排了计时或已经把 drainTask 交给写线程，期间新的请求只进入队列。
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private final Runnable windowTask = new Runnable() {
+
+        @Override
+        public void run() {
+            submitDrain();
+        }
+    };
+
+    WriteCoalescer(DbWorker worker, ExecutorService executor, int maxBatchSize, long windowMillis) {
+        if (maxBatchSize <= 0 || windowMillis < 0) {
+            throw new IllegalArgumentException("maxBatchSize=" + maxBatchSize + ", windowMillis=" + windowMillis);
+        }
+        this.worker = worker;
+        this.executor = executor;
+        this.maxBatchSize = Math.min(maxBatchSize, MAX_BATCH_SIZE);
+        this.windowMillis = windowMillis;
+    }
+
+    Future enqueue(DbRequest request) {
+        PendingWrite write = new PendingWrite(request);
+        pendingWrites.offer(write);
+        scheduleDrain(windowMillis);
+        return write;
+    }
+
+    /**
+     * 关闭写合并或关闭 DbWorker 时调用，在写线程中执行完所有排队的请求，不再等待窗口结束。
+     */
+    void flush() {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                while (drainBatch()) {
+                    //继续执行下一批。
+                }
+            }
+        });
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (pendingWrites.isEmpty() || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (delayMillis <= 0) {
+            submitDrain();
+            return;
+        }
+        try {
+            worker.schedule(windowTask, delayMillis);
+        } catch (RejectedExecutionException e) {
+            //计时线程已经关闭，直接交给写线程。
+            submitDrain();
+        }
+    }
+
+    private void submitDrain() {
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            //写线程已经关闭，排队的请求由 flush 执行。
+            scheduled.set(false);
+            Log.w(TAG, "submitDrain, write executor is shut down, pending=" + pendingWrites.size());
+        }
+    }
+
+    /**
+     * 每次只执行一批，剩下的请求重新排到写线程队列的末尾，不会一直占用写线程。
+     */
+    private void drain() {
+        try {
+            drainBatch();
+        } finally {
+            scheduled.set(false);
+            //窗口之后进入队列的请求已经等待过一批的执行时间，不再计时。
+            scheduleDrain(0);
+        }
+    }
+
+    /**
+     * 取出已经排队的请求，最多 maxBatchSize 个，遇到不能合并的请求时停止。
+     * @return 是否取出了请求。
+     */
+    private boolean drainBatch() {
+        List<PendingWrite> batch = new ArrayList<>();
+        PendingWrite barrier = null;
+        boolean drained = false;
+        while (batch.size() < maxBatchSize) {
+            PendingWrite write = pendingWrites.poll();
+            if (write == null) {
+                break;
+            }
+            drained = true;
+            if (write.isCancelled()) {
+                continue;
+            }
+            worker.recordLatency(write.request, LatencyStage.QUEUE, write.enqueueTime);
+            if (!isCoalescible(write.request)) {
+                //APPLY_BATCH 等请求不参与合并，先提交已收集的请求，保证执行顺序。
+                barrier = write;
+                break;
+            }
+            batch.add(write);
+        }
+        executeBatch(batch);
+        if (barrier != null) {
+            executeSingle(barrier);
+        }
+        return drained;
+    }
+
+    private void executeBatch(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (batch.size() == 1) {
+            executeSingle(batch.get(0));
+            return;
+        }
+        if (isAllBackground(batch)) {
+            worker.yieldToImmediateReads();
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            operations.add(toOperation(write.request));
+        }
+        ContentProviderResult[] results;
+        long start = System.nanoTime();
+        try {
+            results = worker.applyBatch(operations);
+        } catch (Exception e) {
+            //操作数少于 MAX_BATCH_SIZE，没有被分块，整个事务已经回滚，逐个重新执行，让每个请求得到自己的结果。
+            Log.w(TAG, "executeBatch, coalesced batch failed, fall back to single writes", e);
+            for (PendingWrite write : batch) {
+                executeSingle(write);
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite write = batch.get(i);
+            //合并执行的请求各自记录整个事务的耗时，即调用方实际等待的时间。
+            worker.recordLatency(write.request, LatencyStage.EXECUTE, start);
+            write.complete(toResponse(write.request, i < results.length ? results[i] : null));
+        }
+    }
+
+    private void executeSingle(PendingWrite write) {
+        if (write.request.getPriority() == Priority.BACKGROUND) {
+            worker.yieldToImmediateReads();
+        }
+        try {
+            write.complete(worker.execute(write.request));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "executeSingle, request failed", e);
+            write.fail(e);
+        }
+    }
+
+    private boolean isAllBackground(List<PendingWrite> batch) {
+        for (PendingWrite write : batch) {
+            if (write.request.getPriority() != Priority.BACKGROUND) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isCoalescible(DbRequest request) {
+        int requestType = request.getRequestType();
+        return requestType == RequestType.INSERT || requestType == RequestType.UPDATE || requestType == RequestType.DELETE;
+    }
+
+    private ContentProviderOperation toOperation(DbRequest request) {
+        Uri uri = worker.getTableUri(request.getTableName());
+        String selection = request.getSelection();
+        String[] selectionArgs = request.getSelectionArgsArray();
+        ContentValues values = request.getValues();
+        switch (request.getRequestType()) {
+            case RequestType.INSERT:
+                return ContentProviderOperation.newInsert(uri).withValues(values).build();
+            case RequestType.UPDATE:
+                return ContentProviderOperation.newUpdate(uri).withValues(values).withSelection(selection, selectionArgs).build();
+            case RequestType.DELETE:
+                return ContentProviderOperation.newDelete(uri).withSelection(selection, selectionArgs).build();
+            default:
+                throw new IllegalArgumentException("not a coalescible request, type=" + request.getRequestType());
+        }
+    }
+
+    private <T> DbResponse<T> toResponse(DbRequest request, ContentProviderResult result) {
+        DbResponse<T> response = DbResponse.obtain();
+        switch (request.getRequestType()) {
+            case RequestType.INSERT:
+                response.setInsertResult(result != null && result.uri != null ? ContentUris.parseId(result.uri) : -1);
+                break;
+            case RequestType.UPDATE:
+                response.setUpdateResult(result != null && result.count != null ? result.count : 0);
+                break;
+            case RequestType.DELETE:
+                response.setDeleteResult(result != null && result.count != null ? result.count : 0);
+                break;
+            default:
+                break;
+        }
+        return response;
+    }
+
+    private final class PendingWrite extends FutureTask<Void> {
+
+        final DbRequest request;
+        final long enqueueTime = System.nanoTime();
+
+        PendingWrite(DbRequest request) {
+            super(NO_OP);
+            this.request = request;
+        }
+
+        void complete(DbResponse response) {
+            if (isCancelled()) {
+                return;
+            }
+            worker.postResponse(request, response);
+            set(null);
+        }
+
+        void fail(Throwable throwable) {
+            setException(throwable);
+        }
+    }
+}
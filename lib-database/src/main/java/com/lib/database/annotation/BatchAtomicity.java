@@ -0,0 +1,25 @@
+package com.lib.database.annotation;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * applyBatch 的事务范围。
+ */
+@IntDef({BatchAtomicity.PER_CHUNK, BatchAtomicity.WHOLE_BATCH})
+@Retention(RetentionPolicy.SOURCE)
+public @interface BatchAtomicity {
+    /**
+     * 操作数达到 yield 点上限（2000）的批量操作自动分成多个事务提交，失败时只回滚当前的分块。
+     * 调用方通过 withYieldAllowed 标记了 yield 点时只在这些位置分块，两个 yield 点之间的操作数必须少于上限。
+     * 操作数少于上限且没有 yield 点时在一个事务中执行。
+     */
+    int PER_CHUNK = 0;
+    /**
+     * 所有操作在同一个事务中执行，不在任何位置 yield，失败时整体回滚。
+     * 事务的大小没有上限：执行期间一直持有写锁，其他写操作都要等待；WAL 模式下日志文件在提交前不能被检查点回收，
+     * 操作很多时会占用大量磁盘。只用于确实需要整体原子性的批量操作。
+     */
+    int WHOLE_BATCH = 1;
+}
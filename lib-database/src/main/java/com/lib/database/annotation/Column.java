@@ -0,0 +1,19 @@
+package com.lib.database.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记 {@link RowBean} 中对应数据库列的字段，字段为 private 时需要提供 setter。
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.CLASS)
+public @interface Column {
+
+    /**
+     * 列名，为空时使用字段名。
+     */
+    String value() default "";
+}
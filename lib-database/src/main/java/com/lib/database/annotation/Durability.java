@@ -0,0 +1,29 @@
+package com.lib.database.annotation;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * 写入的持久化级别，取值与 PRAGMA synchronous 一致。
+ */
+@IntDef({Durability.DEFAULT, Durability.OFF, Durability.NORMAL, Durability.FULL})
+@Retention(RetentionPolicy.SOURCE)
+public @interface Durability {
+    /**
+     * 不修改，使用系统默认值。
+     */
+    int DEFAULT = -1;
+    /**
+     * 不等待数据写入磁盘，断电可能丢失数据甚至损坏数据库，只适合可以随时重建的缓存数据库。
+     */
+    int OFF = 0;
+    /**
+     * WAL 模式下只在 checkpoint 时同步，断电可能丢失最近提交的事务，但不会损坏数据库。
+     */
+    int NORMAL = 1;
+    /**
+     * 每次提交都同步到磁盘。
+     */
+    int FULL = 2;
+}
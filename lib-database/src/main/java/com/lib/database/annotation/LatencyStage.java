@@ -0,0 +1,29 @@
+package com.lib.database.annotation;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * 请求生命周期中被统计耗时的阶段。
+ */
+@IntDef({LatencyStage.QUEUE, LatencyStage.EXECUTE, LatencyStage.CONVERT, LatencyStage.DELIVER})
+@Retention(RetentionPolicy.SOURCE)
+public @interface LatencyStage {
+    /**
+     * 提交到线程池后等待执行的时间。
+     */
+    int QUEUE = 0;
+    /**
+     * 在 ContentProvider 中执行的时间。
+     */
+    int EXECUTE = 1;
+    /**
+     * IConverter.convert 的时间。
+     */
+    int CONVERT = 2;
+    /**
+     * 结果 post 到主线程后等待回调执行的时间。
+     */
+    int DELIVER = 3;
+}
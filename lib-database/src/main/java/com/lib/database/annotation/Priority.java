@@ -0,0 +1,25 @@
+package com.lib.database.annotation;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * 异步请求的优先级，数值越小越先执行。写请求始终按提交顺序执行，优先级只决定读请求的顺序。
+ */
+@IntDef({Priority.IMMEDIATE, Priority.NORMAL, Priority.BACKGROUND})
+@Retention(RetentionPolicy.SOURCE)
+public @interface Priority {
+    /**
+     * 界面正在等待的请求，例如首屏数据。
+     */
+    int IMMEDIATE = 0;
+    /**
+     * 默认优先级。
+     */
+    int NORMAL = 1;
+    /**
+     * 清理、预取等可以延后的请求，写请求执行前会先等待 IMMEDIATE 查询完成。
+     */
+    int BACKGROUND = 2;
+}
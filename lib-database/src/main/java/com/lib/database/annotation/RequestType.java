@@ -4,7 +4,7 @@ import android.support.annotation.IntDef;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
-@IntDef({RequestType.INSERT, RequestType.QUERY, RequestType.UPDATE, RequestType.DELETE, RequestType.APPLY_BATCH})
+@IntDef({RequestType.INSERT, RequestType.QUERY, RequestType.UPDATE, RequestType.DELETE, RequestType.APPLY_BATCH, RequestType.BULK_INSERT})
 @Retention(RetentionPolicy.SOURCE)
 public @interface RequestType {
     int INSERT = 1;
@@ -12,4 +12,5 @@ public @interface RequestType {
     int UPDATE = 3;
     int DELETE = 4;
     int APPLY_BATCH = 5;
+    int BULK_INSERT = 6;
 }
@@ -0,0 +1,16 @@
+package com.lib.database.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记需要生成 RowMapper 的类，编译时会在同一个包下生成 "类名_RowMapper"，
+ * 它同时实现了 {@link com.lib.database.callback.IRowMapper} 和 IConverter&lt;List&lt;类名&gt;&gt;。
+ * 被标记的类需要有无参构造函数，使用 {@link Column} 标记需要读取的字段。
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface RowBean {
+}
@@ -5,4 +5,12 @@ import android.content.ContentProviderResult;
 
 public abstract class IApplyBatchCallback extends IBaseCallback {
     public abstract void onApplyBatchComplete(ContentProviderResult[] results);
+
+    /**
+     * 批量操作失败时回调，默认与原来一样回调空的结果。
+     * @param numSuccessfulYieldPoints 失败前已经提交的 yield 点数量，为 0 时所有操作都已回滚。
+     */
+    public void onApplyBatchFailed(Exception error, int numSuccessfulYieldPoints) {
+        onApplyBatchComplete(new ContentProviderResult[0]);
+    }
 }
@@ -0,0 +1,6 @@
+package com.lib.database.callback;
+
+
+public abstract class IBulkInsertCallback extends IBaseCallback {
+    public abstract void onBulkInsertComplete(int count);
+}
@@ -0,0 +1,12 @@
+package com.lib.database.callback;
+
+import android.database.Cursor;
+import android.support.v4.os.CancellationSignal;
+
+/**
+ * 可以在转换过程中响应取消的转换器，例如逐行读取大量数据时每隔若干行检查一次 signal。
+ * 被取消时应关闭 Cursor 并抛出 {@link android.support.v4.os.OperationCanceledException}。
+ */
+public interface ICancelableConverter<T> extends IConverter<T> {
+    T convert(Cursor cursor, CancellationSignal signal);
+}
@@ -0,0 +1,19 @@
+package com.lib.database.callback;
+
+
+public abstract class IChunkCallback<T> extends IBaseCallback {
+
+    /**
+     * 收到一批数据，返回之前不会读取下一批。
+     * @param chunk 转换器对这一批数据的转换结果。
+     * @return 返回 false 时停止读取后续数据。
+     */
+    public abstract boolean onChunk(T chunk);
+
+    /**
+     * 所有数据读取完毕，或者被 {@link #onChunk} 提前终止。
+     * @param totalCount 一共读取的行数。
+     */
+    public void onChunkedQueryComplete(int totalCount) {
+    }
+}
@@ -0,0 +1,11 @@
+package com.lib.database.callback;
+
+import android.database.Cursor;
+
+public interface IRowMapper<T> {
+
+    /**
+     * 将 Cursor 当前行转换为对象，不移动 Cursor 的位置。
+     */
+    T mapRow(Cursor cursor);
+}
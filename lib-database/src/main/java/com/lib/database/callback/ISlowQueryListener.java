@@ -0,0 +1,12 @@
+package com.lib.database.callback;
+
+
+import com.lib.database.SlowQuery;
+
+public interface ISlowQueryListener {
+
+    /**
+     * 在慢查询日志的后台线程回调，查询计划已经分析完毕。
+     */
+    void onSlowQuery(SlowQuery slowQuery);
+}
@@ -0,0 +1,170 @@
+package com.lib.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ShardMerger 的 LIMIT 解析、与 SQLite 一致的值比较，以及带 offset 和 limit 的多路归并。
+ * 归并用到 MatrixCursor，需要在 Robolectric 中运行。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class ShardMergerTest {
+
+    private static final String[] COLUMNS = new String[]{"name", "value"};
+
+    @Test
+    public void parseEmptyLimit() {
+        assertArrayEquals(new long[]{0, -1}, ShardMerger.parseLimit(null));
+        assertArrayEquals(new long[]{0, -1}, ShardMerger.parseLimit(" "));
+    }
+
+    @Test
+    public void parseCountOnly() {
+        assertArrayEquals(new long[]{0, 10}, ShardMerger.parseLimit("10"));
+        assertArrayEquals(new long[]{0, -1}, ShardMerger.parseLimit("-1"));
+    }
+
+    @Test
+    public void parseOffsetCommaCount() {
+        assertArrayEquals(new long[]{5, 10}, ShardMerger.parseLimit("5, 10"));
+        assertArrayEquals(new long[]{5, 10}, ShardMerger.parseLimit("5,10"));
+    }
+
+    @Test
+    public void parseCountOffset() {
+        assertArrayEquals(new long[]{5, 10}, ShardMerger.parseLimit("10 OFFSET 5"));
+        assertArrayEquals(new long[]{5, 10}, ShardMerger.parseLimit(" 10 offset 5 "));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseInvalidLimit() {
+        ShardMerger.parseLimit("ten");
+    }
+
+    @Test
+    public void typeOrderMatchesSqlite() {
+        Object[] ordered = new Object[]{null, -3L, 2.5, 7L, "", "a", new byte[0], new byte[]{1}};
+        for (int i = 0; i < ordered.length - 1; i++) {
+            assertTrue(ordered[i] + " < " + ordered[i + 1], ShardMerger.compareValues(ordered[i], ordered[i + 1], false) < 0);
+            assertTrue(ordered[i + 1] + " > " + ordered[i], ShardMerger.compareValues(ordered[i + 1], ordered[i], false) > 0);
+        }
+    }
+
+    @Test
+    public void integerAndRealCompareByValue() {
+        assertEquals(0, ShardMerger.compareValues(2L, 2.0, false));
+        assertTrue(ShardMerger.compareValues(Long.MAX_VALUE - 1, Long.MAX_VALUE, false) < 0);
+    }
+
+    @Test
+    public void blobsCompareUnsigned() {
+        assertTrue(ShardMerger.compareValues(new byte[]{(byte) 0x7f}, new byte[]{(byte) 0x80}, false) < 0);
+        assertTrue(ShardMerger.compareValues(new byte[]{1}, new byte[]{1, 0}, false) < 0);
+    }
+
+    @Test
+    public void noCaseFoldsOnlyAscii() {
+        assertTrue(ShardMerger.compareValues("ABC", "abc", false) < 0);
+        assertEquals(0, ShardMerger.compareValues("ABC", "abc", true));
+        //SQLite 的 NOCASE 不处理 ASCII 以外的字母。
+        assertTrue(ShardMerger.compareValues("\u00C4", "\u00E4", true) != 0);
+    }
+
+    @Test
+    public void supplementaryCharactersCompareByCodePoint() {
+        String emoji = new String(Character.toChars(0x1F600));
+        String replacement = "\uFFFD";
+        //按 UTF-16 比较时代理对 0xD83D 小于 0xFFFD，按码点（与 UTF-8 字节相同）比较时更大。
+        assertTrue(emoji.compareTo(replacement) < 0);
+        assertTrue(ShardMerger.compareValues(emoji, replacement, false) > 0);
+        assertTrue(ShardMerger.compareValues("a" + emoji, "a", false) > 0);
+    }
+
+    @Test
+    public void mergeAppliesOffsetAndLimitAcrossShards() {
+        ShardMerger merger = new ShardMerger(COLUMNS, "value ASC", "2, 3");
+        assertEquals("5", merger.getShardLimit());
+        Cursor merged = merger.merge(Arrays.<Cursor>asList(
+                shard(new Object[]{"a", 1L}, new Object[]{"c", 3L}, new Object[]{"e", 5L}),
+                shard(new Object[]{"b", 2L}, new Object[]{"d", 4L}),
+                null,
+                shard(new Object[]{"f", 6L})));
+        assertEquals(Arrays.asList("c", "d", "e"), readColumn(merged, 0));
+    }
+
+    @Test
+    public void mergeDescendingWithCountOffset() {
+        ShardMerger merger = new ShardMerger(COLUMNS, "value DESC", "2 OFFSET 1");
+        Cursor merged = merger.merge(Arrays.<Cursor>asList(
+                shard(new Object[]{"e", 5L}, new Object[]{"a", 1L}),
+                shard(new Object[]{"d", 4L}, new Object[]{"b", 2L})));
+        assertEquals(Arrays.asList("d", "b"), readColumn(merged, 0));
+    }
+
+    @Test
+    public void mergeKeepsShardOrderForEqualKeys() {
+        ShardMerger merger = new ShardMerger(COLUMNS, "value", null);
+        assertEquals(null, merger.getShardLimit());
+        Cursor merged = merger.merge(Arrays.<Cursor>asList(
+                shard(new Object[]{"first", 1L}),
+                shard(new Object[]{"second", 1L}),
+                shard(new Object[]{"third", 0L})));
+        assertEquals(Arrays.asList("third", "first", "second"), readColumn(merged, 0));
+    }
+
+    @Test
+    public void sortColumnOutsideProjectionIsDropped() {
+        ShardMerger merger = new ShardMerger(new String[]{"name"}, "value COLLATE NOCASE", "2");
+        assertArrayEquals(COLUMNS, merger.getShardProjection());
+        Cursor merged = merger.merge(Arrays.<Cursor>asList(
+                shard(new Object[]{"x", "B"}, new Object[]{"y", "c"}),
+                shard(new Object[]{"z", "a"})));
+        assertEquals(1, merged.getColumnCount());
+        assertEquals(Arrays.asList("z", "x"), readColumn(merged, 0));
+    }
+
+    @Test
+    public void mergeClosesShards() {
+        MatrixCursor first = shard(new Object[]{"a", 1L});
+        MatrixCursor second = shard(new Object[]{"b", 2L});
+        new ShardMerger(COLUMNS, "value", "1").merge(Arrays.<Cursor>asList(first, second));
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expressionInSortOrderIsRejected() {
+        new ShardMerger(COLUMNS, "length(name)", null);
+    }
+
+    private static MatrixCursor shard(Object[]... rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static List<String> readColumn(Cursor cursor, int index) {
+        List<String> values = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            values.add(cursor.getString(index));
+        }
+        cursor.close();
+        return values;
+    }
+}
@@ -0,0 +1,92 @@
+package com.lib.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * SlowQueryLog 中不依赖数据库的部分：SQL 归一化和索引列的选择。
+ */
+public class SlowQueryLogTest {
+
+    @Test
+    public void normalizeReplacesLiterals() {
+        assertEquals("SELECT * FROM t WHERE name = ? AND age > ? AND price < ?",
+                SlowQueryLog.normalize("SELECT * FROM t WHERE name = 'it''s' AND age > 30 AND price < 12.5"));
+    }
+
+    @Test
+    public void normalizeKeepsIdentifiersWithDigits() {
+        assertEquals("SELECT t1.col2 FROM t1 WHERE col2 = ?",
+                SlowQueryLog.normalize("SELECT t1.col2 FROM t1 WHERE col2 = 7"));
+    }
+
+    @Test
+    public void normalizeCollapsesWhitespace() {
+        assertEquals("SELECT a FROM t WHERE a = ?",
+                SlowQueryLog.normalize("  SELECT  a\n FROM\tt\r\n WHERE a =   ? "));
+    }
+
+    @Test
+    public void sameStructureNormalizesToSameSql() {
+        assertEquals(SlowQueryLog.normalize("SELECT * FROM t WHERE id = 1"),
+                SlowQueryLog.normalize("SELECT *  FROM t WHERE id = 42"));
+    }
+
+    @Test
+    public void equalityColumnsBeforeRange() {
+        assertEquals(Arrays.asList("a", "c", "b"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE a = ? AND b > ? AND c = ?"));
+    }
+
+    @Test
+    public void onlyFirstRangeColumn() {
+        assertEquals(Arrays.asList("a", "b"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE a = ? AND b >= ? AND c < ?"));
+    }
+
+    @Test
+    public void inAndIsAreEquality() {
+        assertEquals(Arrays.asList("a", "b"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE a IN (?, ?) AND b IS NULL"));
+    }
+
+    @Test
+    public void notEqualIsIgnored() {
+        assertEquals(Collections.singletonList("b"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE a <> ? AND b = ?"));
+    }
+
+    @Test
+    public void quotedColumns() {
+        assertEquals(Arrays.asList("a", "b"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE \"a\" = ? AND `b` = ?"));
+    }
+
+    @Test
+    public void orderByAppendedWithoutRange() {
+        assertEquals(Arrays.asList("a", "d", "e"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE a = ? ORDER BY d DESC, e LIMIT ?"));
+    }
+
+    @Test
+    public void orderByIgnoredWithRange() {
+        assertEquals(Arrays.asList("a", "b"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE a = ? AND b < ? ORDER BY c"));
+    }
+
+    @Test
+    public void orderByOnly() {
+        assertEquals(Collections.singletonList("time"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t ORDER BY time DESC"));
+    }
+
+    @Test
+    public void atMostFourColumns() {
+        assertEquals(Arrays.asList("a", "b", "c", "d"),
+                SlowQueryLog.suggestIndexColumns("SELECT * FROM t WHERE a = ? AND b = ? AND c = ? AND d = ? AND e = ?"));
+    }
+}